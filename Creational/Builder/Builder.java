@@ -64,34 +64,253 @@ public class Samsung extends Company {  // implementation classes of Company sam
 }//End of the Samsung class.  
 
 public class CDType {  // CDType class
-    private List<Packing> items=new ArrayList<Packing>();  
+    private Packing[] items;  
+    private int size;  
+    private boolean sealed;  
+    // running totals, updated by addItem so getCost() doesn't have to walk the items
+    private long totalCost;  
+    // subtotals per company, a catalog only has a few companies so a small array beats a map (and allocates less)
+    private static final Class<?>[] NO_COMPANIES=new Class<?>[0];  
+    private static final long[] NO_COSTS=new long[0];  
+    private Class<?>[] companies=NO_COMPANIES;  
+    private long[] companyCosts=NO_COSTS;  
+    public CDType() {    
+           this(10);  
+    }  
+    public CDType(int expectedItems) {  // presized, no regrowth while it is filled
+           items=new Packing[expectedItems];  
+    }  
     public void addItem(Packing packs) {    
-           items.add(packs);  
+           if (sealed)  
+               throw new IllegalStateException("CDType is sealed");  
+           if (size==items.length)  
+               items=Arrays.copyOf(items, Math.max(1, size*2));  
+           items[size++]=packs;  
+           int price=packs.price();  
+           totalCost+=price;  
+           int company=companyIndex(packs.getClass());  
+           companyCosts[company]+=price;  
+    }  
+    // makes the CDType immutable, the item array is trimmed to its exact size
+    public CDType seal() {  
+           if (!sealed) {  
+               if (size!=items.length)  
+                   items=Arrays.copyOf(items, size);  
+               sealed=true;  
+           }  
+           return this;  
+    }  
+    public boolean isSealed() {  
+           return sealed;  
+    }  
+    public int size() {  
+           return size;  
+    }  
+    public long getCost(){  
+     return totalCost;  
+    }  
+    public long getCost(Class<? extends Packing> company){  // subtotal of one company (Sony.class, Samsung.class, ...)
+     for (int i=0;i<companies.length;i++){  
+         if (companies[i]==company)  
+             return companyCosts[i];  
+     }  
+     return 0;  
+    }  
+    private int companyIndex(Class<?> company){  
+     for (int i=0;i<companies.length;i++){  
+         if (companies[i]==company)  
+             return i;  
+     }  
+     companies=Arrays.copyOf(companies, companies.length+1);  
+     companyCosts=Arrays.copyOf(companyCosts, companyCosts.length+1);  
+     companies[companies.length-1]=company;  
+     return companies.length-1;  
+    }  
+    // array backed, so the stream splits evenly for parallel processing
+    public Stream<Packing> stream(){  
+     return Arrays.stream(items, 0, size);  
+    }  
+
+    // parallel aggregations (fork/join), each returns exactly what its sequential version returns
+
+    public long totalPrice(){  // sequential => walks every item (getCost() is the O(1) running total)
+     return aggregate(null, new TotalPrice());  
+    }  
+    public long totalPrice(ForkJoinPool pool){  
+     return aggregate(pool, new TotalPrice());  
+    }  
+    public Map<String, LongSummaryStatistics> priceStatsByPack(){  // count, min, max, sum and average price per pack() name
+     return aggregate(null, new PriceStatsByPack());  
+    }  
+    public Map<String, LongSummaryStatistics> priceStatsByPack(ForkJoinPool pool){  
+     return aggregate(pool, new PriceStatsByPack());  
+    }  
+    public List<Packing> mostExpensive(int n){  // top n by price, ties keep catalog order
+     return toItems(aggregate(null, new MostExpensive(n)));  
+    }  
+    public List<Packing> mostExpensive(int n, ForkJoinPool pool){  
+     return toItems(aggregate(pool, new MostExpensive(n)));  
+    }  
+
+    // pool == null runs the aggregation sequentially over the whole catalog
+    private <R> R aggregate(ForkJoinPool pool, RangeAggregator<R> aggregator){  
+     Packing[] snapshot=items;  
+     if (pool==null)  
+         return aggregator.leaf(snapshot, 0, size);  
+     return pool.invoke(new RangeTask<>(aggregator, snapshot, 0, size));  
     }  
-    public void getCost(){  
-     for (Packing packs : items) {  
-               packs.price();  
-     }   
+    private List<Packing> toItems(int[][] best){  
+     List<Packing> result=new ArrayList<>(best.length);  
+     for (int[] pair : best)  
+         result.add(items[pair[0]]);  
+     return result;  
     }  
+
+    interface RangeAggregator<R>{  
+     R leaf(Packing[] items, int from, int to);  
+     R combine(R left, R right);  
+    }  
+
+    // splits the index range in halves until it is small enough, then combines the partial results bottom up
+    static final class RangeTask<R> extends RecursiveTask<R>{  
+     private static final int THRESHOLD=64*1024;  
+     private final RangeAggregator<R> aggregator;  
+     private final Packing[] items;  
+     private final int from, to;  
+     RangeTask(RangeAggregator<R> aggregator, Packing[] items, int from, int to){  
+         this.aggregator=aggregator;  
+         this.items=items;  
+         this.from=from;  
+         this.to=to;  
+     }  
+     @Override  
+     protected R compute(){  
+         if (to-from<=THRESHOLD)  
+             return aggregator.leaf(items, from, to);  
+         int middle=(from+to)>>>1;  
+         RangeTask<R> left=new RangeTask<>(aggregator, items, from, middle);  
+         left.fork();  
+         R right=new RangeTask<>(aggregator, items, middle, to).compute();  
+         return aggregator.combine(left.join(), right);  
+     }  
+    }  
+
+    static final class TotalPrice implements RangeAggregator<Long>{  
+     public Long leaf(Packing[] items, int from, int to){  
+         long total=0;  
+         for (int i=from;i<to;i++)  
+             total+=items[i].price();  
+         return total;  
+     }  
+     public Long combine(Long left, Long right){  
+         return left+right;  
+     }  
+    }  
+
+    static final class PriceStatsByPack implements RangeAggregator<Map<String, LongSummaryStatistics>>{  
+     public Map<String, LongSummaryStatistics> leaf(Packing[] items, int from, int to){  
+         Map<String, LongSummaryStatistics> stats=new HashMap<>();  
+         for (int i=from;i<to;i++)  
+             stats.computeIfAbsent(items[i].pack(), pack -> new LongSummaryStatistics()).accept(items[i].price());  
+         return stats;  
+     }  
+     public Map<String, LongSummaryStatistics> combine(Map<String, LongSummaryStatistics> left, Map<String, LongSummaryStatistics> right){  
+         right.forEach((pack, stats) -> left.merge(pack, stats, (a, b) -> { a.combine(b); return a; }));  
+         return left;  
+     }  
+    }  
+
+    // keeps the n most expensive items as {index, price} pairs, sorted by price (highest first) then by index
+    static final class MostExpensive implements RangeAggregator<int[][]>{  
+     private static final Comparator<int[]> ORDER=(a, b) -> a[1]!=b[1] ? Integer.compare(b[1], a[1]) : Integer.compare(a[0], b[0]);  
+     private final int n;  
+     MostExpensive(int n){  
+         if (n<0)  
+             throw new IllegalArgumentException("n must not be negative");  
+         this.n=n;  
+     }  
+     public int[][] leaf(Packing[] items, int from, int to){  
+         // the heap root is the pair that drops out first
+         PriorityQueue<int[]> heap=new PriorityQueue<>(Math.min(n, to-from)+1, ORDER.reversed());  // sized by the range too, n can be Integer.MAX_VALUE  
+         for (int i=from;i<to && n>0;i++){  
+             int price=items[i].price();  
+             if (heap.size()==n && price<=heap.peek()[1])  
+                 continue;  // can't beat the cheapest of the n kept so far (and comes later on equal price)
+             heap.add(new int[] {i, price});  
+             if (heap.size()>n)  
+                 heap.poll();  
+         }  
+         int[][] best=heap.toArray(new int[0][]);  
+         Arrays.sort(best, ORDER);  
+         return best;  
+     }  
+     public int[][] combine(int[][] left, int[][] right){  
+         int[][] merged=new int[Math.min(n, left.length+right.length)][];  
+         int l=0, r=0;  
+         for (int i=0;i<merged.length;i++){  
+             if (r==right.length || (l<left.length && ORDER.compare(left[l], right[r])<=0))  
+                 merged[i]=left[l++];  
+             else  
+                 merged[i]=right[r++];  
+         }  
+         return merged;  
+     }  
+    }  
+
     public void showItems(){  
-     for (Packing packing : items){  
+     for (int i=0;i<size;i++){  
+    Packing packing=items[i];  
     System.out.print("CD name : "+packing.pack());  
     System.out.println(", Price : "+packing.price());  
     }       
    }     
 }//End of the CDType class.  
 
+// Sony, Samsung and the other companies hold no state, one instance of each is shared by every CD (Flyweight, see Structural/Flyweight)
+public class Companies {  
+    private static final FlyweightFactory<Class<? extends Company>, Company> COMPANIES=new FlyweightFactory<>(company -> {  
+        try {  
+            return company.getDeclaredConstructor().newInstance();  
+        } catch (ReflectiveOperationException e) {  
+            throw new IllegalArgumentException("can't create "+company.getName(), e);  
+        }  
+    }, 64, false);  
+
+    public static <C extends Company> C of(Class<C> company){  
+        return company.cast(COMPANIES.get(company));  
+    }  
+}  
+
 public class CDBuilder {  
+    private static final Sony SONY=Companies.of(Sony.class);  
+    private static final Samsung SAMSUNG=Companies.of(Samsung.class);  
+
     public CDType buildSonyCD(){   
-       CDType cds=new CDType();  
-       cds.addItem(new Sony());  
+       CDType cds=new CDType(1);  
+       cds.addItem(SONY);  
        return cds;  
     }  
     public CDType buildSamsungCD(){  
-    CDType cds=new CDType();  
-    cds.addItem(new Samsung());  
+    CDType cds=new CDType(1);  
+    cds.addItem(SAMSUNG);  
     return cds;  
     }  
+    // bulk builds => count sealed (immutable) CDs in one call, e.g. for catalogue imports
+    public CDType[] buildSonyCDs(int count){  
+       return buildCDs(SONY, count);  
+    }  
+    public CDType[] buildSamsungCDs(int count){  
+       return buildCDs(SAMSUNG, count);  
+    }  
+    public CDType[] buildCDs(Packing packing, int count){  
+       CDType[] cds=new CDType[count];  
+       for (int i=0;i<count;i++){  
+           CDType cd=new CDType(1);  
+           cd.addItem(packing);  
+           cds[i]=cd.seal();  
+       }  
+       return cds;  
+    }  
 }// End of the CDBuilder class.  
 
 //** Usage */
@@ -107,6 +326,175 @@ public class BuilderDemo{
     }  
    }  
 
+//** Cost Check */
+
+// checks the running total and the per company subtotals => an empty CDType, a company CDType has never seen before,
+// and random catalogs whose subtotals must add up to getCost() and to the total of walking every item
+public class CDTypeCostCheck{  
+    static class Philips extends Company{  // a third company, only known to this check
+        @Override  
+        public int price(){  
+            return 25;  
+        }  
+        @Override  
+        public String pack(){  
+            return "Philips CD";  
+        }  
+    }  
+
+    public static void main(String args[]){  
+      CDType empty=new CDType();  
+      check(empty.getCost()==0 && empty.getCost(Sony.class)==0 && empty.size()==0, "empty CDType costs nothing");  
+      check(new CDType(0).seal().getCost()==0, "empty sealed CDType costs nothing");  
+
+      Packing[] kinds={Companies.of(Sony.class), Companies.of(Samsung.class), Companies.of(Philips.class)};  
+      Random random=new Random(42);  
+      for (int round=0;round<1_000;round++){  
+          int items=random.nextInt(200);  
+          CDType cds=new CDType(random.nextInt(20));  // often too small, so the array has to grow
+          long walked=0;  
+          for (int i=0;i<items;i++){  
+              Packing packs=kinds[random.nextInt(kinds.length)];  
+              cds.addItem(packs);  
+              walked+=packs.price();  
+          }  
+          if (round%2==0)  
+              cds.seal();  
+          long subtotals=cds.getCost(Sony.class)+cds.getCost(Samsung.class)+cds.getCost(Philips.class);  
+          check(cds.getCost()==walked, "getCost() is the sum of the item prices");  
+          check(subtotals==cds.getCost(), "the company subtotals add up to getCost()");  
+          check(cds.getCost(Philips.class)%25==0, "a new company gets its own subtotal");  
+          check(cds.size()==items, "size() counts every item");  
+      }  
+      System.out.println("OK => CDType totals and subtotals agree");  
+    }  
+
+    private static void check(boolean condition, String what){  
+      if (!condition)  
+          throw new IllegalStateException("failed: "+what);  
+    }  
+}  
+
+//** Benchmark */
+
+// repeated total queries on a large catalog => walking every item vs the running total
+public class CDTypeCostBenchmark{  
+    public static void main(String args[]){  
+      int items=5_000_000;  
+      int queries=100;  
+      CDType catalog=new CDType();  
+      for (int i=0;i<items;i++){  
+          catalog.addItem(i%2==0 ? Companies.of(Sony.class) : Companies.of(Samsung.class));  
+      }  
+
+      List<Packing> list=new ArrayList<Packing>();  
+      for (int i=0;i<items;i++){  
+          list.add(i%2==0 ? Companies.of(Sony.class) : Companies.of(Samsung.class));  
+      }  
+
+      long start=System.nanoTime();  
+      long total=0;  
+      for (int q=0;q<queries;q++){  
+          total=0;  
+          for (Packing packs : list) {  
+              total+=packs.price();  
+          }  
+      }  
+      long loopNanos=System.nanoTime()-start;  
+
+      start=System.nanoTime();  
+      long cached=0;  
+      for (int q=0;q<queries;q++){  
+          cached=catalog.getCost();  
+      }  
+      long cachedNanos=System.nanoTime()-start;  
+
+      if (total!=cached || cached!=catalog.getCost(Sony.class)+catalog.getCost(Samsung.class))  
+          throw new IllegalStateException(total+" != "+cached);  
+      System.out.println("loop over items : "+loopNanos/queries+" ns/query");  
+      System.out.println("running total   : "+cachedNanos/queries+" ns/query");  
+    }  
+}  
+
+// builds millions of CDs one at a time with new Sony()/Samsung() and the original ArrayList backed CDType (copied below as it was),
+// and with the bulk builder, reports throughput and bytes allocated per CD
+public class CDBuilderBenchmark{  
+    // the CDType this change replaced, kept here as the baseline
+    static class ListCDType {  
+        private List<Packing> items=new ArrayList<Packing>();  
+        public void addItem(Packing packs) {    
+               items.add(packs);  
+        }  
+    }  
+
+    public static void main(String args[]){  
+      int count=2_000_000;  
+      CDBuilder cdBuilder=new CDBuilder();  
+      com.sun.management.ThreadMXBean threads=(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();  
+
+      for (int round=0;round<5;round++){  
+          long bytes=threads.getCurrentThreadAllocatedBytes();  
+          long start=System.nanoTime();  
+          ListCDType[] original=new ListCDType[count];  
+          for (int i=0;i<count;i++){  
+              ListCDType cds=new ListCDType();  
+              cds.addItem(i%2==0 ? new Sony() : new Samsung());  
+              original[i]=cds;  
+          }  
+          long originalNanos=System.nanoTime()-start;  
+          long originalBytes=threads.getCurrentThreadAllocatedBytes()-bytes;  
+          int originalCount=original.length;  
+          original=null;  // so the bulk run doesn't pay for collecting around the baseline's CDs  
+          System.gc();  
+
+          bytes=threads.getCurrentThreadAllocatedBytes();  
+          start=System.nanoTime();  
+          CDType[] sony=cdBuilder.buildSonyCDs(count/2);  
+          CDType[] samsung=cdBuilder.buildSamsungCDs(count/2);  
+          long bulkNanos=System.nanoTime()-start;  
+          long bulkBytes=threads.getCurrentThreadAllocatedBytes()-bytes;  
+
+          System.out.println("original builder : "+count*1_000_000_000L/originalNanos+" CDs/s, "+originalBytes/count+" bytes/CD");  
+          System.out.println("bulk builder     : "+count*1_000_000_000L/bulkNanos+" CDs/s, "+bulkBytes/count+" bytes/CD");  
+          if (originalCount!=sony.length+samsung.length)  
+              throw new IllegalStateException();  
+      }  
+    }  
+}  
+
+// parallel aggregations on a large catalog with 1 thread up to all cores, checked against the sequential results
+public class CDTypeAggregationBenchmark{  
+    public static void main(String args[]){  
+      int items=20_000_000;  
+      Packing[] kinds={Companies.of(Sony.class), Companies.of(Samsung.class)};  
+      CDType catalog=new CDType(items);  
+      Random random=new Random(42);  
+      for (int i=0;i<items;i++){  
+          catalog.addItem(kinds[random.nextInt(kinds.length)]);  
+      }  
+      catalog.seal();  
+
+      long total=catalog.totalPrice();  
+      String stats=catalog.priceStatsByPack().toString();  
+      List<Packing> top=catalog.mostExpensive(10);  
+
+      int cores=Runtime.getRuntime().availableProcessors();  
+      // 1, 2, 4, ... and always all the cores last, even when it isn't a power of two (6, 12, 24...)
+      for (int threads=1;threads<=cores;threads=threads==cores ? cores+1 : Math.min(threads*2, cores)){  
+          ForkJoinPool pool=new ForkJoinPool(threads);  
+          long start=System.nanoTime();  
+          for (int round=0;round<10;round++){  
+              if (catalog.totalPrice(pool)!=total  
+                      || !catalog.priceStatsByPack(pool).toString().equals(stats)  
+                      || !catalog.mostExpensive(10, pool).equals(top))  
+                  throw new IllegalStateException("parallel result differs from the sequential one");  
+          }  
+          System.out.println(threads+" threads : "+(System.nanoTime()-start)/10/1_000_000+" ms per round");  
+          pool.shutdown();  
+      }  
+    }  
+}  
+
 // ============================================================================================================================================= //
 
 //** references */
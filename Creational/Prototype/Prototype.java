@@ -44,16 +44,21 @@ interface Prototype{
     public Prototype getClone();   
 }
 
-class EmployeeRecord implements Prototype{  
+class EmployeeRecord implements Prototype, Cloneable{  
     private int id;  
     private String name, designation;  
     private double salary;  
     private String address;  
        
+    static final String[] REPORT_HEADER = {
+             "   Employee Records of Oracle Corporation ",
+             "---------------------------------------------",
+             "Eid"+"\t"+"Ename"+"\t"+"Edesignation"+"\t"+"Esalary"+"\t\t"+"Eaddress"
+    };
+
     public EmployeeRecord(){  
-             System.out.println("   Employee Records of Oracle Corporation ");  
-             System.out.println("---------------------------------------------");  
-             System.out.println("Eid"+"\t"+"Ename"+"\t"+"Edesignation"+"\t"+"Esalary"+"\t\t"+"Eaddress");  
+             for (String line : REPORT_HEADER)
+                  System.out.println(line);  
     }  
    
     public  EmployeeRecord(int id, String name, String designation, double salary, String address) {  
@@ -68,13 +73,485 @@ class EmployeeRecord implements Prototype{
     public void showRecord(){  
          System.out.println(id+"\t"+name+"\t"+designation+"\t"+salary+"\t"+address);  
     }  
+
+    // same line as showRecord(), appended to a caller's buffer instead of printed
+    void appendRecord(StringBuilder out){
+         out.append(id).append('\t').append(name).append('\t').append(designation)
+            .append('\t').append(salary).append('\t').append(address);
+    }
    
+     // Object.clone() copies the fields directly, no constructor runs (so the report header isn't printed for every clone)
      @Override  
      public Prototype getClone() {  
-         return new EmployeeRecord(id,name,designation,salary,address);  
+         try {
+             return (EmployeeRecord) super.clone();
+         } catch (CloneNotSupportedException e) {
+             throw new AssertionError(e);  // can't happen, EmployeeRecord is Cloneable
+         }
     }  
+
+     // clone, then initialize the internal state of the copy (see "Initializing Internal States" above)
+     public EmployeeRecord cloneWith(int id, String name, String designation, double salary, String address) {
+         EmployeeRecord record = (EmployeeRecord) getClone();
+         record.id = id;
+         record.name = name;
+         record.designation = designation;
+         record.salary = salary;
+         record.address = address;
+         return record;
+    }
+
+    public int getId(){ return id; }
+    public String getName(){ return name; }
+    public String getDesignation(){ return designation; }
+    public double getSalary(){ return salary; }
+    public String getAddress(){ return address; }
 } 
 
+//** Prototype Manager */
+
+// keeps named prototypes, and hands out clones of them instead of creating objects from scratch
+class PrototypeManager{
+    private final Map<String, Prototype> prototypes = new ConcurrentHashMap<>();
+
+    public void register(String name, Prototype prototype){
+         prototypes.put(name, prototype);
+    }
+
+    public void unregister(String name){
+         prototypes.remove(name);
+    }
+
+    // returns null when no prototype is registered under that name
+    public Prototype getClone(String name){
+         Prototype prototype = prototypes.get(name);
+         return prototype == null ? null : prototype.getClone();
+    }
+}
+
+//** Columnar Record Store */
+
+// stores millions of employee records as one array per field (struct of arrays) instead of one object per record,
+// so there are no per-record object headers, and a scan over a single field walks a contiguous primitive array.
+// designation and address repeat a lot, they are stored as int codes into a dictionary
+class EmployeeRecordStore{
+    private int[] ids;
+    private double[] salaries;
+    private String[] names;
+    private int[] designations, addresses;
+    private final StringDictionary designationDictionary = new StringDictionary();
+    private final StringDictionary addressDictionary = new StringDictionary();
+    private int size;
+
+    public EmployeeRecordStore(int initialCapacity){
+         ids = new int[initialCapacity];
+         salaries = new double[initialCapacity];
+         names = new String[initialCapacity];
+         designations = new int[initialCapacity];
+         addresses = new int[initialCapacity];
+    }
+
+    // returns the row of the new record
+    public int add(int id, String name, String designation, double salary, String address){
+         ensureCapacity(size + 1);
+         ids[size] = id;
+         names[size] = name;
+         designations[size] = designationDictionary.encode(designation);
+         salaries[size] = salary;
+         addresses[size] = addressDictionary.encode(address);
+         return size++;
+    }
+
+    public int add(EmployeeRecord record){
+         return add(record.getId(), record.getName(), record.getDesignation(), record.getSalary(), record.getAddress());
+    }
+
+    public int size(){
+         return size;
+    }
+
+    // a lightweight view of one row, usable anywhere a Prototype is expected
+    public EmployeeView view(int row){
+         Objects.checkIndex(row, size);
+         return new EmployeeView(this, row);
+    }
+
+    // bulk clone => appends a copy of rows [from, to) with a handful of array copies, returns the row of the first copy
+    public int cloneRows(int from, int to){
+         Objects.checkFromToIndex(from, to, size);
+         int count = to - from;
+         int first = size;
+         ensureCapacity(size + count);
+         System.arraycopy(ids, from, ids, first, count);
+         System.arraycopy(names, from, names, first, count);
+         System.arraycopy(designations, from, designations, first, count);
+         System.arraycopy(salaries, from, salaries, first, count);
+         System.arraycopy(addresses, from, addresses, first, count);
+         size += count;
+         return first;
+    }
+
+    // total salary of one designation => compares int codes, no string comparison per row
+    public double salarySum(String designation){
+         int code = designationDictionary.codeOf(designation);
+         if (code < 0)
+              return 0;
+         double sum = 0;
+         for (int row = 0; row < size; row++) {
+              if (designations[row] == code)
+                   sum += salaries[row];
+         }
+         return sum;
+    }
+
+    // total salary of every designation in a single pass
+    public Map<String, Double> salarySumByDesignation(){
+         double[] sums = new double[designationDictionary.size()];
+         for (int row = 0; row < size; row++) {
+              sums[designations[row]] += salaries[row];
+         }
+         Map<String, Double> result = new HashMap<>();
+         for (int code = 0; code < sums.length; code++) {
+              result.put(designationDictionary.decode(code), sums[code]);
+         }
+         return result;
+    }
+
+    int id(int row){ return ids[row]; }
+    String name(int row){ return names[row]; }
+    String designation(int row){ return designationDictionary.decode(designations[row]); }
+    double salary(int row){ return salaries[row]; }
+    String address(int row){ return addressDictionary.decode(addresses[row]); }
+
+    private void ensureCapacity(int capacity){
+         if (capacity <= ids.length)
+              return;
+         int newCapacity = Math.max(capacity, ids.length * 2);
+         ids = Arrays.copyOf(ids, newCapacity);
+         salaries = Arrays.copyOf(salaries, newCapacity);
+         names = Arrays.copyOf(names, newCapacity);
+         designations = Arrays.copyOf(designations, newCapacity);
+         addresses = Arrays.copyOf(addresses, newCapacity);
+    }
+}
+
+// dictionary encoding => each distinct string is stored once and referred to by its int code
+class StringDictionary{
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> values = new ArrayList<>();
+
+    public int encode(String value){
+         Integer code = codes.get(value);
+         if (code == null) {
+              code = values.size();
+              codes.put(value, code);
+              values.add(value);
+         }
+         return code;
+    }
+
+    // -1 when the value was never encoded
+    public int codeOf(String value){
+         Integer code = codes.get(value);
+         return code == null ? -1 : code;
+    }
+
+    public String decode(int code){
+         return values.get(code);
+    }
+
+    public int size(){
+         return values.size();
+    }
+}
+
+class EmployeeView implements Prototype{
+    private final EmployeeRecordStore store;
+    private final int row;
+
+    EmployeeView(EmployeeRecordStore store, int row){
+         this.store = store;
+         this.row = row;
+    }
+
+    public int getId(){ return store.id(row); }
+    public String getName(){ return store.name(row); }
+    public String getDesignation(){ return store.designation(row); }
+    public double getSalary(){ return store.salary(row); }
+    public String getAddress(){ return store.address(row); }
+
+    public void showRecord(){  
+         System.out.println(getId()+"\t"+getName()+"\t"+getDesignation()+"\t"+getSalary()+"\t"+getAddress());  
+    }  
+
+    // the clone is a new row in the same store
+    @Override
+    public Prototype getClone(){
+         return store.view(store.cloneRows(row, row + 1));
+    }
+
+    // copies the row out into a standalone EmployeeRecord, cloned from the given prototype
+    public EmployeeRecord toRecord(EmployeeRecord prototype){
+         return prototype.cloneWith(getId(), getName(), getDesignation(), getSalary(), getAddress());
+    }
+}
+
+//** Copy-on-Write Clones */
+
+// a third option next to deep and shallow clones => the clone shares everything with the original (O(1) to create),
+// and a part is copied only the first time one of them modifies it, so memory grows only with what is modified
+interface CowPrototype extends Prototype{
+    public Prototype getCowClone();
+}
+
+// a list that can be cloned in O(1), the copies share one backing list until one of them writes to it
+class CowList<E>{
+    private static final class Backing<E>{
+         final List<E> items;
+         final AtomicInteger owners = new AtomicInteger(1);
+
+         Backing(List<E> items){
+              this.items = items;
+         }
+    }
+
+    private Backing<E> backing;
+
+    public CowList(){
+         backing = new Backing<>(new ArrayList<>());
+    }
+
+    private CowList(Backing<E> backing){
+         this.backing = backing;
+    }
+
+    public CowList<E> cowClone(){
+         backing.owners.incrementAndGet();
+         return new CowList<>(backing);
+    }
+
+    // eager copy of the list itself, the elements are still shared
+    public CowList<E> copy(){
+         return new CowList<>(new Backing<>(new ArrayList<>(backing.items)));
+    }
+
+    public E get(int index){ return backing.items.get(index); }
+    public int size(){ return backing.items.size(); }
+
+    public void add(E item){
+         beforeWrite();
+         backing.items.add(item);
+    }
+
+    public void set(int index, E item){
+         beforeWrite();
+         backing.items.set(index, item);
+    }
+
+    public E remove(int index){
+         beforeWrite();
+         return backing.items.remove(index);
+    }
+
+    // the first write to a shared list gives this copy its own list
+    private void beforeWrite(){
+         if (backing.owners.get() > 1) {
+              Backing<E> shared = backing;
+              backing = new Backing<>(new ArrayList<>(shared.items));
+              shared.owners.decrementAndGet();
+         }
+    }
+}
+
+// the read only side of a Team, what a Department hands out for teams that may be shared with its clones
+interface TeamView{
+    public String getName();
+    public int size();
+    public EmployeeRecord getMember(int index);
+}
+
+class Team implements CowPrototype, TeamView{
+    private final String name;
+    private final CowList<EmployeeRecord> members;
+    Object owner;  // the Department allowed to modify this team in place
+
+    public Team(String name){
+         this(name, new CowList<>());
+    }
+
+    private Team(String name, CowList<EmployeeRecord> members){
+         this.name = name;
+         this.members = members;
+    }
+
+    public String getName(){ return name; }
+    public int size(){ return members.size(); }
+    public EmployeeRecord getMember(int index){ return members.get(index); }
+
+    // records are treated as values, a member is changed by replacing its record
+    public void addMember(EmployeeRecord record){ members.add(record); }
+    public void setMember(int index, EmployeeRecord record){ members.set(index, record); }
+    public void removeMember(int index){ members.remove(index); }
+
+    // deep clone => copies the member list and every record in it
+    @Override
+    public Prototype getClone(){
+         CowList<EmployeeRecord> copy = new CowList<>();
+         for (int i = 0; i < members.size(); i++)
+              copy.add((EmployeeRecord) members.get(i).getClone());
+         return new Team(name, copy);
+    }
+
+    // shallow clone => shares the member list itself, changes show up in both teams
+    public Prototype getShallowClone(){
+         return new Team(name, members);
+    }
+
+    @Override
+    public Prototype getCowClone(){
+         return new Team(name, members.cowClone());
+    }
+}
+
+class Department implements CowPrototype{
+    private final String name;
+    private final CowList<Team> teams;
+    // teams stamped with this token belong to this department only and can be modified in place,
+    // cloning gives both departments a new token so every team becomes shared again in O(1)
+    private Object ownerToken = new Object();
+
+    public Department(String name){
+         this(name, new CowList<>());
+    }
+
+    private Department(String name, CowList<Team> teams){
+         this.name = name;
+         this.teams = teams;
+    }
+
+    public String getName(){ return name; }
+    public int size(){ return teams.size(); }
+
+    // read only access, the team may be shared with clones (getTeamForUpdate gives a team that can be modified)
+    public TeamView getTeam(int index){ return teams.get(index); }
+
+    // the department takes the team over => change it through getTeamForUpdate from now on, not through this reference
+    public void addTeam(Team team){
+         team.owner = ownerToken;
+         teams.add(team);
+    }
+
+    // access for modification, a team still shared with a clone is copied (copy on write) first
+    public Team getTeamForUpdate(int index){
+         Team team = teams.get(index);
+         if (team.owner != ownerToken) {
+              team = (Team) team.getCowClone();
+              team.owner = ownerToken;
+              teams.set(index, team);
+         }
+         return team;
+    }
+
+    public void removeTeam(int index){
+         teams.remove(index);
+    }
+
+    // deep clone => copies every team and every record
+    @Override
+    public Prototype getClone(){
+         Department copy = new Department(name);
+         for (int i = 0; i < teams.size(); i++)
+              copy.addTeam((Team) teams.get(i).getClone());
+         return copy;
+    }
+
+    // shallow clone => shares the team list itself, changes show up in both departments
+    public Prototype getShallowClone(){
+         return new Department(name, teams);
+    }
+
+    @Override
+    public Prototype getCowClone(){
+         ownerToken = new Object();
+         return new Department(name, teams.cowClone());
+    }
+}
+
+//** Bulk Report Writer */
+
+// writes any number of records as one report => the header once, then the records are collected in a reusable buffer
+// and written to the channel in large chunks, instead of one synchronized, flushed System.out.println per record
+class EmployeeReportWriter{
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    private final WritableByteChannel channel;
+    private final StringBuilder pending;
+    private final ByteBuffer bytes;
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder();
+    private final int flushThreshold;
+
+    public EmployeeReportWriter(WritableByteChannel channel){
+         this(channel, 64 * 1024);
+    }
+
+    public EmployeeReportWriter(WritableByteChannel channel, int bufferSize){
+         this.channel = channel;
+         this.flushThreshold = bufferSize;
+         this.pending = new StringBuilder(bufferSize + 256);
+         this.bytes = ByteBuffer.allocateDirect(bufferSize);
+    }
+
+    public void writeHeader() throws IOException{
+         for (String line : EmployeeRecord.REPORT_HEADER)
+              pending.append(line).append(LINE_SEPARATOR);
+         drainIfFull();
+    }
+
+    public void write(EmployeeRecord record) throws IOException{
+         record.appendRecord(pending);
+         pending.append(LINE_SEPARATOR);
+         drainIfFull();
+    }
+
+    public void writeAll(Iterable<? extends EmployeeRecord> records) throws IOException{
+         for (EmployeeRecord record : records)
+              write(record);
+    }
+
+    // writes everything buffered so far, the channel stays open
+    public void flush() throws IOException{
+         encodePending();
+         writeBytes();
+    }
+
+    private void drainIfFull() throws IOException{
+         if (pending.length() >= flushThreshold)
+              encodePending();
+    }
+
+    // encodes the buffered characters into the byte buffer, writing to the channel every time it fills up
+    private void encodePending() throws IOException{
+         CharBuffer chars = CharBuffer.wrap(pending);
+         while (true) {
+              CoderResult result = encoder.encode(chars, bytes, true);
+              if (result.isError())
+                   result.throwException();
+              if (result.isUnderflow())
+                   break;
+              writeBytes();
+         }
+         encoder.reset();
+         pending.setLength(0);
+    }
+
+    private void writeBytes() throws IOException{
+         bytes.flip();
+         while (bytes.hasRemaining())
+              channel.write(bytes);
+         bytes.clear();
+    }
+}
+
 //** Usage */
 
 class PrototypeDemo{  
@@ -87,9 +564,208 @@ class PrototypeDemo{
        
        EmployeeRecord e2=(EmployeeRecord) e1.getClone();  
        e2.showRecord();  
+
+       System.out.println("\n");  
+
+       PrototypeManager manager = new PrototypeManager();
+       manager.register("manager", e1);
+       EmployeeRecord e3=(EmployeeRecord) manager.getClone("manager");
+       e3.showRecord();
+
+       System.out.println("\n");  
+
+       EmployeeRecordStore store = new EmployeeRecordStore(16);
+       EmployeeView v1 = store.view(store.add(e1));
+       EmployeeView v2 = (EmployeeView) v1.getClone();
+       v2.showRecord();
+
+       System.out.println("\n");  
+
+       Department sales = new Department("Sales");
+       Team team = new Team("EMEA");
+       team.addMember(e1);
+       sales.addTeam(team);
+
+       // nothing is copied yet, until the clone modifies the team (then only that team and its member list are copied)
+       Department salesCopy = (Department) sales.getCowClone();
+       salesCopy.getTeamForUpdate(0).setMember(0, e1.cloneWith(2,"Jane","Manager",12000,"UK"));
+       sales.getTeam(0).getMember(0).showRecord();
+       salesCopy.getTeam(0).getMember(0).showRecord();
+
+       System.out.println("\n");  
+
+       EmployeeReportWriter report = new EmployeeReportWriter(Channels.newChannel(System.out));
+       report.writeHeader();
+       report.writeAll(List.of(e1, e2, e3));
+       report.flush();
    }     
 }
 
+//** Benchmark */
+
+// clones per second through the constructor (the previous getClone()) and through Object.clone()
+class PrototypeBenchmark{
+    public static void main(String[] args) {
+       int count = 1_000_000;
+       EmployeeRecord prototype = new EmployeeRecord(1,"John","Manager",10000,"USA");
+       PrintStream console = System.out;
+
+       // the constructor prints its header on every call, the console writes are part of the cost being measured
+       // so they are kept, but sent to a sink to leave the terminal readable
+       System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+       long start = System.nanoTime();
+       for (int i = 0; i < count; i++) {
+            new EmployeeRecord(1,"John","Manager",10000,"USA");
+       }
+       long constructorNanos = System.nanoTime() - start;
+
+       start = System.nanoTime();
+       for (int i = 0; i < count; i++) {
+            prototype.getClone();
+       }
+       long cloneNanos = System.nanoTime() - start;
+       System.setOut(console);
+
+       System.out.println("constructor : " + count * 1_000_000_000L / constructorNanos + " clones/s");
+       System.out.println("clone()     : " + count * 1_000_000_000L / cloneNanos + " clones/s");
+   }
+}
+
+
+// heap footprint per record and salary scan throughput, List<EmployeeRecord> vs EmployeeRecordStore
+class EmployeeRecordStoreBenchmark{
+    public static void main(String[] args) {
+       int count = 5_000_000;
+       String[] designations = {"Manager", "Engineer", "Analyst", "Designer", "Tester", "Support", "Sales", "Director"};
+       String[] addresses = {"USA", "UK", "Egypt", "Germany", "India", "Brazil", "Japan", "Canada"};
+       EmployeeRecord prototype = new EmployeeRecord(1,"John","Manager",10000,"USA");
+
+       long before = usedHeap();
+       List<EmployeeRecord> list = new ArrayList<>(count);
+       for (int i = 0; i < count; i++) {
+            list.add(prototype.cloneWith(i, "Emp" + i, designations[i % designations.length], 1000 + i % 9000, addresses[i % addresses.length]));
+       }
+       long listBytes = usedHeap() - before;
+
+       before = usedHeap();
+       EmployeeRecordStore store = new EmployeeRecordStore(count);
+       for (int i = 0; i < count; i++) {
+            store.add(i, "Emp" + i, designations[i % designations.length], 1000 + i % 9000, addresses[i % addresses.length]);
+       }
+       long storeBytes = usedHeap() - before;
+
+       System.out.println("List<EmployeeRecord> : " + listBytes / count + " bytes/record");
+       System.out.println("EmployeeRecordStore  : " + storeBytes / count + " bytes/record");
+       System.out.println("(names are unique strings in both, they account for most of the remaining footprint)");
+
+       for (int round = 0; round < 5; round++) {
+            long start = System.nanoTime();
+            double listSum = 0;
+            for (EmployeeRecord record : list) {
+                 if (record.getDesignation().equals("Manager"))
+                      listSum += record.getSalary();
+            }
+            long listNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            double storeSum = store.salarySum("Manager");
+            long storeNanos = System.nanoTime() - start;
+
+            if (listSum != storeSum)
+                 throw new IllegalStateException(listSum + " != " + storeSum);
+            System.out.println("scan List : " + count * 1000L / listNanos + " M rows/s"
+                 + "\tscan store : " + count * 1000L / storeNanos + " M rows/s");
+       }
+   }
+
+    // heap in use after a few collections, shared by the benchmarks of this file
+    static long usedHeap(){
+       Runtime runtime = Runtime.getRuntime();
+       for (int i = 0; i < 3; i++)
+            System.gc();
+       return runtime.totalMemory() - runtime.freeMemory();
+   }
+}
+
+// time and memory per clone for deep, shallow and copy-on-write clones as the department grows,
+// and the cost of the first modification of a copy-on-write clone
+class CloneModeBenchmark{
+    public static void main(String[] args) {
+       EmployeeRecord prototype = new EmployeeRecord(1,"John","Manager",10000,"USA");
+       int clones = 100;
+
+       for (int teams = 10; teams <= 1000; teams *= 10) {
+            Department department = new Department("Sales");
+            for (int t = 0; t < teams; t++) {
+                 Team team = new Team("Team" + t);
+                 for (int m = 0; m < 100; m++)
+                      team.addMember(prototype.cloneWith(t * 100 + m, "Emp" + m, "Engineer", 5000, "USA"));
+                 department.addTeam(team);
+            }
+            System.out.println(teams + " teams x 100 members");
+            measure("  deep    ", clones, department::getClone);
+            measure("  shallow ", clones, department::getShallowClone);
+            measure("  cow     ", clones, department::getCowClone);
+            measure("  cow + 1 team modified", clones, () -> {
+                 Department copy = (Department) department.getCowClone();
+                 copy.getTeamForUpdate(0).setMember(0, prototype);
+                 return copy;
+            });
+       }
+   }
+
+    private static void measure(String label, int count, Supplier<Prototype> cloner){
+       Prototype[] keep = new Prototype[count];
+       long before = EmployeeRecordStoreBenchmark.usedHeap();
+       long start = System.nanoTime();
+       for (int i = 0; i < count; i++)
+            keep[i] = cloner.get();
+       long nanos = System.nanoTime() - start;
+       long bytes = EmployeeRecordStoreBenchmark.usedHeap() - before;
+       System.out.println(label + "\t" + nanos / count + " ns/clone\t" + bytes / count + " bytes/clone");
+   }
+}
+
+// records per second written to a file, showRecord() per record vs EmployeeReportWriter
+class EmployeeReportBenchmark{
+    public static void main(String[] args) throws IOException {
+       int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+       EmployeeRecord prototype = new EmployeeRecord(1,"John","Manager",10000,"USA");
+       EmployeeRecord[] records = new EmployeeRecord[1024];
+       for (int i = 0; i < records.length; i++)
+            records[i] = prototype.cloneWith(i, "Emp" + i, "Engineer", 5000 + i, "USA");
+
+       Path file = Files.createTempFile("employee-report", ".txt");
+       try {
+            // showRecord() goes through System.out, which flushes on every println
+            PrintStream console = System.out;
+            long start = System.nanoTime();
+            try (PrintStream out = new PrintStream(new FileOutputStream(file.toFile()), true)) {
+                 System.setOut(out);
+                 for (int i = 0; i < count; i++)
+                      records[i & 1023].showRecord();
+            } finally {
+                 System.setOut(console);
+            }
+            long printNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                 EmployeeReportWriter writer = new EmployeeReportWriter(channel);
+                 writer.writeHeader();
+                 for (int i = 0; i < count; i++)
+                      writer.write(records[i & 1023]);
+                 writer.flush();
+            }
+            long writerNanos = System.nanoTime() - start;
+
+            System.out.println("showRecord()         : " + count * 1_000_000_000L / printNanos + " records/s");
+            System.out.println("EmployeeReportWriter : " + count * 1_000_000_000L / writerNanos + " records/s");
+       } finally {
+            Files.delete(file);
+       }
+   }
+}
 
 // ============================================================================================================================================= //
 
@@ -16,6 +16,7 @@ when to use Singleton
 --------------------------------------------------------------------------------------
 Hot Spot:
     1- Multithreading => A special care should be taken when singleton has to be used in a multithreading application.
+       (synchronized getInstance() is safe but slow, prefer the holder class, double-checked locking with volatile or an enum)
     2- Serialization => When Singletons are implementing Serializable interface they have to implement readResolve method in order to avoid having 2 different objects.
     3- Classloaders => If the Singleton class is loaded by 2 different class loaders we'll have 2 different classes, one for each class loader.
     4- Global Access Point represented by the class name => The singleton instance is obtained using the class name. At the first view this is an easy way to access it, 
@@ -27,28 +28,117 @@ Hot Spot:
 
 //** Singleton Class */
 
-class Singleton {
-	private static Singleton instance;
+interface SingletonInstance {
+	public void doSomething();
+}
+
+class Singleton implements SingletonInstance {
 
 	private Singleton() {
 		// private constructor
 	}
-	
-    // using synchronized makes sure that only one thread at a time can execute getInstance()
-	public static synchronized Singleton getInstance(){
+
+	// the holder class is not loaded until getInstance() touches it for the first time (lazy initialization),
+	// and the JVM guarantees class initialization happens once and is visible to all threads,
+	// so reading the instance needs no lock at all
+	private static class Holder {
+		private static final Singleton INSTANCE = new Singleton();
+	}
+
+	public static Singleton getInstance(){
+		return Holder.INSTANCE;
+	}
+
+	// selects one of the initialization strategies below through the same API
+	public static SingletonInstance getInstance(InitializationStrategy strategy){
+		return strategy.getInstance();
+	}
+		
+	public void doSomething()
+	{
+		// do something code
+	}
+}
+
+//** Other Initialization Strategies */
+
+class SynchronizedSingleton implements SingletonInstance {
+	private static SynchronizedSingleton instance;
+
+	private SynchronizedSingleton() {
+		// private constructor
+	}
+
+	// using synchronized makes sure that only one thread at a time can execute getInstance()
+	// but every call takes the monitor, even long after the instance is created
+	public static synchronized SynchronizedSingleton getInstance(){
 
 		if (instance == null)
-			instance = new Singleton();
+			instance = new SynchronizedSingleton();
 
 		return instance;
 	}
-		
+
+	public void doSomething()
+	{
+		// do something code
+	}
+}
+
+class DoubleCheckedSingleton implements SingletonInstance {
+	// volatile is required, without it another thread may see a non-null reference to a partially constructed object
+	private static volatile DoubleCheckedSingleton instance;
+
+	private DoubleCheckedSingleton() {
+		// private constructor
+	}
+
+	// the lock is only taken while the instance is still null, after that getInstance() is a single volatile read
+	public static DoubleCheckedSingleton getInstance(){
+		DoubleCheckedSingleton result = instance;
+		if (result == null) {
+			synchronized (DoubleCheckedSingleton.class) {
+				result = instance;
+				if (result == null)
+					instance = result = new DoubleCheckedSingleton();
+			}
+		}
+		return result;
+	}
+
+	public void doSomething()
+	{
+		// do something code
+	}
+}
+
+// the JVM creates the enum constant once, and it also handles serialization and reflection attacks for free
+enum EnumSingleton implements SingletonInstance {
+	INSTANCE;
+
 	public void doSomething()
 	{
 		// do something code
 	}
 }
 
+enum InitializationStrategy {
+	SYNCHRONIZED {
+		SingletonInstance getInstance() { return SynchronizedSingleton.getInstance(); }
+	},
+	DOUBLE_CHECKED {
+		SingletonInstance getInstance() { return DoubleCheckedSingleton.getInstance(); }
+	},
+	HOLDER {
+		SingletonInstance getInstance() { return Singleton.getInstance(); }
+	},
+	ENUM {
+		SingletonInstance getInstance() { return EnumSingleton.INSTANCE; }
+	};
+
+	abstract SingletonInstance getInstance();
+}
+
 //** Usage */
 
 public class SingletonPatternDemo {
@@ -59,10 +149,60 @@ public class SingletonPatternDemo {
  
        //do something
        object.doSomething();
+
+       //or pick the initialization strategy explicitly
+       SingletonInstance other = Singleton.getInstance(InitializationStrategy.DOUBLE_CHECKED);
+       other.doSomething();
     }
  }
 
 
+//** Benchmark */
+
+// measures getInstance() calls per second for every strategy with 1..N threads
+class SingletonBenchmark {
+	public static void main(String[] args) throws InterruptedException {
+		int maxThreads = Runtime.getRuntime().availableProcessors();
+		long durationMillis = 1000;
+
+		for (InitializationStrategy strategy : InitializationStrategy.values()) {
+			// 1, 2, 4, ... and always maxThreads last, even when it isn't a power of two (6, 12, 24...)
+			for (int threads = 1; threads <= maxThreads; threads = threads == maxThreads ? maxThreads + 1 : Math.min(threads * 2, maxThreads)) {
+				System.out.println(strategy + "\t" + threads + " threads\t" + run(strategy, threads, durationMillis) + " ops/s");
+			}
+		}
+	}
+
+	private static long run(InitializationStrategy strategy, int threads, long durationMillis) throws InterruptedException {
+		LongAdder calls = new LongAdder();
+		AtomicBoolean running = new AtomicBoolean(true);
+		Thread[] workers = new Thread[threads];
+
+		for (int i = 0; i < threads; i++) {
+			workers[i] = new Thread(() -> {
+				long count = 0;
+				while (running.get()) {
+					for (int j = 0; j < 1000; j++) {
+						if (strategy.getInstance() == null)
+							throw new IllegalStateException();
+					}
+					count += 1000;
+				}
+				calls.add(count);
+			});
+			workers[i].start();
+		}
+
+		Thread.sleep(durationMillis);
+		running.set(false);
+		for (Thread worker : workers)
+			worker.join();
+
+		return calls.sum() * 1000 / durationMillis;
+	}
+}
+
+
 // ============================================================================================================================================= //
 
 //** references */
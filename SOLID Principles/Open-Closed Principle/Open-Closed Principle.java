@@ -69,6 +69,24 @@ class RecordableTransaction {
         return MessageFormat.format("{0}-{1}-{2}-{3}",
                 ticker, String.valueOf(quantity),String.valueOf(price),date);
     }
+    // Write the same record (UTF-8) into a reusable buffer, without creating any objects
+    public static void writeRecord(ByteBuffer out, CharSequence ticker, int quantity, float price, CharSequence date){
+        TransactionRecordEncoder.encodeText(out, ticker, quantity, price, date);
+    }
+
+    // Where executed trades are persisted, nothing is persisted until a journal is set
+    private static volatile TransactionJournal journal;
+
+    public static void useJournal(TransactionJournal transactionJournal){
+        journal = transactionJournal;
+    }
+
+    // Persist an executed trade, shared by all inherited classes
+    protected static void journal(byte side, String ticker, int quantity, float price){
+        TransactionJournal current = journal;
+        if (current != null)
+            current.appendTrade(side, ticker, quantity, price, LocalDate.now().toString());
+    }
 }
 class Transaction {
     
@@ -85,12 +103,14 @@ class Buy extends RecordableTransaction{
     // Class-specific Buy logic still implemented here
     static void execute(String stock, int quantity, float price){
         // Execute buy action here
+        journal(TransactionJournal.BUY, stock, quantity, price);
     }
 }
 class Sell extends RecordableTransaction{
     // Class-specific Sell logic still implemented here
     static void execute(String stock, int quantity, float price){
         // Execute sell action here
+        journal(TransactionJournal.SELL, stock, quantity, price);
     }
 }
 
@@ -98,6 +118,551 @@ class Sell extends RecordableTransaction{
 //         then we will make RecordableTransaction class as abstract class and makeRecord() as abstract function
 //         then we will have to implement makeRecord() function in all the children classes.
 
+//** Record Encoder */
+
+// writes transaction records straight into a reusable ByteBuffer => no pattern parsing, boxing or temporary strings per record
+//    text layout   => ticker-quantity-price-date in UTF-8, byte for byte what makeRecord(...) returns
+//    binary layout => fixed 32 bytes [ticker, 8 ASCII bytes zero padded][int quantity][float price][date, 16 ASCII bytes zero padded]
+// Note => prices are written by a fast path when Float.toString would print at most 3 fraction digits in plain notation
+//         (0.001 <= |price| < 10^7, which covers usual prices), any other price falls back to Float.toString (it allocates)
+final class TransactionRecordEncoder {
+
+    public static final int BINARY_RECORD_SIZE = 32;
+    public static final int BINARY_TICKER_SIZE = 8;
+    public static final int BINARY_DATE_SIZE = 16;
+
+    private static final double[] POWERS_OF_TEN = {1, 10, 100, 1000};
+
+    private TransactionRecordEncoder(){
+    }
+
+    public static void encodeText(ByteBuffer out, CharSequence ticker, int quantity, float price, CharSequence date){
+        putUtf8(out, ticker);
+        out.put((byte) '-');
+        putLong(out, quantity);
+        out.put((byte) '-');
+        putFloat(out, price);
+        out.put((byte) '-');
+        putUtf8(out, date);
+    }
+
+    public static void encodeBinary(ByteBuffer out, CharSequence ticker, int quantity, float price, CharSequence date){
+        putFixedAscii(out, ticker, BINARY_TICKER_SIZE);
+        out.putInt(quantity);
+        out.putFloat(price);
+        putFixedAscii(out, date, BINARY_DATE_SIZE);
+    }
+
+    // same as String.valueOf(value).getBytes(UTF_8), a null is written as "null" like MessageFormat does
+    private static void putUtf8(ByteBuffer out, CharSequence value){
+        if (value == null)
+            value = "null";
+        int length = value.length();
+        for (int i = 0; i < length; i++){
+            char c = value.charAt(i);
+            if (c < 0x80){
+                out.put((byte) c);
+            } else if (c < 0x800){
+                out.put((byte) (0xC0 | c >> 6)).put((byte) (0x80 | c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))){
+                int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                out.put((byte) (0xF0 | codePoint >> 18)).put((byte) (0x80 | codePoint >> 12 & 0x3F))
+                   .put((byte) (0x80 | codePoint >> 6 & 0x3F)).put((byte) (0x80 | codePoint & 0x3F));
+            } else if (Character.isSurrogate(c)){
+                out.put((byte) '?');  // a lone surrogate, String.getBytes(UTF_8) replaces it the same way
+            } else {
+                out.put((byte) (0xE0 | c >> 12)).put((byte) (0x80 | c >> 6 & 0x3F)).put((byte) (0x80 | c & 0x3F));
+            }
+        }
+    }
+
+    private static void putLong(ByteBuffer out, long value){
+        if (value < 0){
+            out.put((byte) '-');
+            value = -value;  // quantities are ints, so this can't overflow
+        }
+        long divisor = 1;
+        while (divisor <= value / 10)
+            divisor *= 10;
+        for (; divisor > 0; divisor /= 10)
+            out.put((byte) ('0' + value / divisor % 10));
+    }
+
+    // same text as String.valueOf(price)
+    private static void putFloat(ByteBuffer out, float value){
+        if (value == 0){
+            if (Float.floatToRawIntBits(value) < 0)
+                out.put((byte) '-');
+            out.put((byte) '0').put((byte) '.').put((byte) '0');
+            return;
+        }
+        float magnitude = Math.abs(value);
+        if (magnitude >= 1e-3f && magnitude < 1e7f){
+            // the shortest decimal with 1..3 fraction digits that reads back as the same float is what Float.toString prints
+            for (int digits = 1; digits < POWERS_OF_TEN.length; digits++){
+                long scaled = (long) Math.rint(magnitude * POWERS_OF_TEN[digits]);  // ties go to the even digit, like Float.toString
+                if ((float) (scaled / POWERS_OF_TEN[digits]) != magnitude)
+                    continue;
+                if (value < 0)
+                    out.put((byte) '-');
+                long unit = (long) POWERS_OF_TEN[digits];
+                putLong(out, scaled / unit);
+                out.put((byte) '.');
+                for (long fraction = scaled % unit, divisor = unit / 10; divisor > 0; divisor /= 10)
+                    out.put((byte) ('0' + fraction / divisor % 10));
+                return;
+            }
+        }
+        putUtf8(out, Float.toString(value));
+    }
+
+    private static void putFixedAscii(ByteBuffer out, CharSequence value, int size){
+        int length = value.length();
+        if (length > size)
+            throw new IllegalArgumentException("'" + value + "' is longer than " + size + " characters");
+        for (int i = 0; i < length; i++){
+            char c = value.charAt(i);
+            if (c >= 0x80)
+                throw new IllegalArgumentException("'" + value + "' is not ASCII");
+            out.put((byte) c);
+        }
+        for (int i = length; i < size; i++)
+            out.put((byte) 0);
+    }
+}
+
+// checks that encodeText writes exactly the bytes of makeRecord(...), for random records and edge case prices
+class TransactionRecordCompatibilityCheck {
+
+    public static void main(String[] args){
+        float[] edgePrices = {0f, -0f, 1f, -1f, 0.1f, 0.01f, 0.001f, 0.0015f, 9.999999E-4f, 1e-3f, 9999999f, 1e7f,
+                              123.45f, 100.125f, 0.3f, 16777216f, Float.MIN_VALUE, Float.MAX_VALUE, Float.NaN,
+                              Float.POSITIVE_INFINITY, Float.NEGATIVE_INFINITY};
+        String[] tickers = {"AAPL", "MSFT", "BRK.B", "", "\u00c6BLE", "\u20ac\u00a3", "\ud83d\udcc8UP", "\ud800"};
+        Random random = new Random(42);
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        int checked = 0;
+
+        for (int i = 0; i < 2_000_000; i++){
+            float price;
+            if (i < edgePrices.length)
+                price = edgePrices[i];
+            else if (i % 3 == 0)
+                price = random.nextInt(10_000_000) / 100f;                   // prices in cents
+            else if (i % 3 == 1)
+                price = (float) (random.nextDouble() * Math.pow(10, random.nextInt(12) - 4));
+            else
+                price = Float.intBitsToFloat(random.nextInt());              // any float at all
+            String ticker = tickers[i % tickers.length];
+            int quantity = i % 5 == 0 ? random.nextInt() : random.nextInt(10_000);
+            String date = i % 100 == 0 ? null : "2024-0" + (1 + i % 9) + "-1" + i % 10;
+
+            buffer.clear();
+            RecordableTransaction.writeRecord(buffer, ticker, quantity, price, date);
+            byte[] expected = RecordableTransaction.makeRecord(ticker, quantity, price, date).getBytes(StandardCharsets.UTF_8);
+            if (!buffer.flip().equals(ByteBuffer.wrap(expected)))
+                throw new IllegalStateException("mismatch for " + new String(expected, StandardCharsets.UTF_8)
+                        + ", encoded " + StandardCharsets.UTF_8.decode(buffer));
+            checked++;
+        }
+        System.out.println(checked + " records match makeRecord byte for byte");
+    }
+}
+
+//** Transaction Journal */
+
+// an append-only journal of records kept in memory-mapped segment files (directory/00000000000000000000.journal, ...)
+//    record   => [int length][payload], a length of 0 marks the end (a new segment is all zeros), the length is written last
+//                so a record cut by a process crash reads as the end of the journal. open() zeroes everything after the last
+//                whole record, otherwise the bytes of the cut record would be read back as records once shorter ones are appended
+//    segments => when a record doesn't fit, the segment is forced to disk and the next one is created (roll)
+//    sync     => syncInterval 0 makes append() wait until its record is on disk, with group commit => one force() covers every
+//                record appended before it started, so appenders waiting meanwhile return without forcing again.
+//                any other interval appends to memory only and a background thread forces every interval
+//                (a crash can lose the records of the last interval). once a background force() fails, append() and sync()
+//                throw => records aren't known to be on disk anymore
+//    replay   => reads every record of every segment in order, to rebuild state after a restart
+final class TransactionJournal implements AutoCloseable {
+
+    public static final byte BUY = 'B';
+    public static final byte SELL = 'S';
+    public static final int TRADE_SIZE = 1 + TransactionRecordEncoder.BINARY_RECORD_SIZE;  // [side][binary trade record]
+
+    private final Path directory;
+    private final int segmentSize;
+    private final boolean syncEveryAppend;
+    private final ReentrantLock appendLock = new ReentrantLock();
+    private final ReentrantLock syncLock = new ReentrantLock();
+    private final ScheduledExecutorService flusher;
+    private final LongAdder forces = new LongAdder();
+
+    private volatile MappedByteBuffer segment;  // changed under appendLock
+    private long segmentIndex;                  // guarded by appendLock
+    private int recordStart;                    // guarded by appendLock
+    private volatile long written;              // bytes appended since open, changed under appendLock
+    private volatile long durable;              // bytes known to be on disk, changed under syncLock
+    private volatile boolean closed;            // set under appendLock
+    private volatile Throwable flushFailure;    // first failure of the background force()
+
+    private TransactionJournal(Path directory, int segmentSize, Duration syncInterval) throws IOException {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.syncEveryAppend = syncInterval.isZero();
+        Files.createDirectories(directory);
+
+        List<Path> segments = segments(directory);
+        if (segments.isEmpty()){
+            segment = map(0);
+        } else {
+            // continue after the last record of the last segment
+            Path last = segments.get(segments.size() - 1);
+            segmentIndex = Long.parseLong(last.getFileName().toString().replace(".journal", ""));
+            segment = map(segmentIndex);
+            int length;
+            while (segment.remaining() >= 4 && (length = segment.getInt(segment.position())) > 0 && length <= segment.remaining() - 4)
+                segment.position(segment.position() + 4 + length);
+            wipeTail(segment);
+        }
+
+        if (syncEveryAppend){
+            flusher = null;
+        } else {
+            flusher = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "transaction-journal-flusher");
+                thread.setDaemon(true);
+                return thread;
+            });
+            long interval = syncInterval.toNanos();
+            flusher.scheduleAtFixedRate(this::backgroundSync, interval, interval, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    public static TransactionJournal open(Path directory, int segmentSize, Duration syncInterval) throws IOException {
+        if (segmentSize < 64)
+            throw new IllegalArgumentException("segmentSize is too small");
+        if (syncInterval.isNegative())
+            throw new IllegalArgumentException("syncInterval can't be negative");
+        return new TransactionJournal(directory, segmentSize, syncInterval);
+    }
+
+    // copies the remaining bytes of payload into the journal
+    public void append(ByteBuffer payload){
+        long end;
+        appendLock.lock();
+        try {
+            MappedByteBuffer out = begin(payload.remaining());
+            try {
+                out.put(payload);
+            } catch (RuntimeException e){
+                abort(out);
+                throw e;
+            }
+            end = commit(out);
+        } finally {
+            appendLock.unlock();
+        }
+        if (syncEveryAppend)
+            syncTo(end);
+    }
+
+    // appends [side][binary trade record] encoded straight into the mapped segment, without creating any objects
+    public void appendTrade(byte side, CharSequence ticker, int quantity, float price, CharSequence date){
+        long end;
+        appendLock.lock();
+        try {
+            MappedByteBuffer out = begin(TRADE_SIZE);
+            try {
+                out.put(side);
+                TransactionRecordEncoder.encodeBinary(out, ticker, quantity, price, date);
+            } catch (RuntimeException e){
+                abort(out);
+                throw e;
+            }
+            end = commit(out);
+        } finally {
+            appendLock.unlock();
+        }
+        if (syncEveryAppend)
+            syncTo(end);
+    }
+
+    // forces every record appended so far to disk
+    public void sync(){
+        checkFlushed();
+        syncTo(written);
+    }
+
+    // number of force() calls so far, lower than the number of appends when group commit works
+    public long forces(){
+        return forces.sum();
+    }
+
+    // reads the records of every segment in directory, in order, each payload is a read-only buffer only valid during the call
+    public static void replay(Path directory, Consumer<ByteBuffer> reader) throws IOException {
+        for (Path path : segments(directory)){
+            MappedByteBuffer records;
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)){
+                records = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+            int length;
+            while (records.remaining() >= 4 && (length = records.getInt(records.position())) > 0 && length <= records.remaining() - 4){
+                int start = records.position() + 4;
+                reader.accept(records.slice(start, length).asReadOnlyBuffer());
+                records.position(start + length);
+            }
+        }
+    }
+
+    // reserves room for a record, rolling to the next segment when needed, and positions the segment at the payload
+    private MappedByteBuffer begin(int length){
+        if (closed)
+            throw new IllegalStateException("journal is closed");
+        checkFlushed();
+        if (length <= 0 || length > segmentSize - 8)
+            throw new IllegalArgumentException("record length " + length + " doesn't fit a segment");
+        if (segment.remaining() < 4 + length + 4)
+            roll();
+        recordStart = segment.position();
+        segment.position(recordStart + 4);
+        return segment;
+    }
+
+    // writes the length of the record just written (last, see the notes above) and returns the bytes appended after it
+    private long commit(MappedByteBuffer out){
+        int length = out.position() - recordStart - 4;
+        out.putInt(recordStart, length);
+        written += 4 + length;
+        return written;
+    }
+
+    // a record failed half way (a ticker too long...), wipe what it wrote so the next record starts from clean zeros
+    private void abort(MappedByteBuffer out){
+        for (int i = recordStart; i < out.position(); i++)
+            out.put(i, (byte) 0);
+        out.position(recordStart);
+    }
+
+    // zeroes what follows the last whole record (a record cut by a crash), writing only the bytes that aren't zero already
+    // so the untouched part of the segment isn't dirtied
+    private static void wipeTail(MappedByteBuffer segment){
+        boolean wiped = false;
+        for (int i = segment.position(); i < segment.limit(); i++){
+            if (segment.get(i) != 0){
+                segment.put(i, (byte) 0);
+                wiped = true;
+            }
+        }
+        if (wiped)
+            segment.force();
+    }
+
+    // a failing task of scheduleAtFixedRate is silently never run again, so the failure is kept for append() and sync()
+    private void backgroundSync(){
+        try {
+            syncTo(written);
+        } catch (RuntimeException | Error e){
+            if (flushFailure == null)
+                flushFailure = e;
+            throw e;
+        }
+    }
+
+    private void checkFlushed(){
+        Throwable failure = flushFailure;
+        if (failure != null)
+            throw new IllegalStateException("background sync failed, appended records may not be on disk", failure);
+    }
+
+    private void roll(){
+        segment.force();
+        forces.increment();
+        try {
+            segment = map(++segmentIndex);
+        } catch (IOException e){
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private MappedByteBuffer map(long index) throws IOException {
+        Path path = directory.resolve(String.format("%020d.journal", index));
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)){
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+        }
+    }
+
+    private void syncTo(long end){
+        if (durable >= end)
+            return;
+        syncLock.lock();
+        try {
+            if (durable >= end)
+                return;  // forced by the appender that held the lock before us (group commit)
+            long target = written;  // every record up to here is in the mapped segment, or in a segment forced when it rolled
+            segment.force();
+            forces.increment();
+            durable = target;
+        } finally {
+            syncLock.unlock();
+        }
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        if (!Files.isDirectory(directory))
+            return new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)){
+            return files.filter(path -> path.getFileName().toString().endsWith(".journal")).sorted().collect(Collectors.toList());
+        }
+    }
+
+    @Override
+    public void close(){
+        appendLock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;  // before the final sync, so no record can be appended after it
+        } finally {
+            appendLock.unlock();
+        }
+        if (flusher != null)
+            flusher.shutdownNow();
+        sync();
+    }
+}
+
+// executes some trades through Buy and Sell, then rebuilds the positions from the journal, like after a restart
+class TransactionJournalDemo {
+
+    public static void main(String[] args) throws IOException {
+        Path directory = Files.createTempDirectory("transaction-journal");
+        try (TransactionJournal journal = TransactionJournal.open(directory, 4096, Duration.ZERO)){
+            RecordableTransaction.useJournal(journal);
+            Buy.execute("AAPL", 100, 189.5f);
+            Buy.execute("MSFT", 40, 412.25f);
+            Sell.execute("AAPL", 30, 190.75f);
+            for (int i = 0; i < 200; i++)  // enough trades to roll a few 4KB segments
+                Buy.execute("NVDA", 1, 900 + i);
+        }
+        RecordableTransaction.useJournal(null);
+
+        Map<String, Integer> positions = new TreeMap<>();
+        TransactionJournal.replay(directory, record -> {
+            int sign = record.get() == TransactionJournal.SELL ? -1 : 1;
+            byte[] ticker = new byte[TransactionRecordEncoder.BINARY_TICKER_SIZE];
+            record.get(ticker);
+            int quantity = record.getInt();
+            positions.merge(new String(ticker, StandardCharsets.US_ASCII).trim(), sign * quantity, Integer::sum);
+        });
+        System.out.println("positions after replay: " + positions);  // {AAPL=70, MSFT=40, NVDA=200}
+    }
+}
+
+//** Benchmark */
+
+// records/s and bytes allocated per record for makeRecord + getBytes (MessageFormat), the text encoder and the binary encoder
+class TransactionRecordBenchmark {
+
+    public static void main(String[] args){
+        int count = 1 << 20;
+        String[] tickers = {"AAPL", "MSFT", "GOOG", "AMZN", "NVDA", "TSLA", "META", "BRK.B"};
+        int[] quantities = new int[count];
+        float[] prices = new float[count];
+        Random random = new Random(7);
+        for (int i = 0; i < count; i++){
+            quantities[i] = 1 + random.nextInt(5_000);
+            prices[i] = (1 + random.nextInt(100_000)) / 100f;
+        }
+        String date = "2024-05-17";
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        for (int round = 0; round < 5; round++){
+            long sink = 0;
+            for (int layout = 0; layout < 3; layout++){
+                long bytes = threads.getCurrentThreadAllocatedBytes();
+                long start = System.nanoTime();
+                buffer.clear();
+                for (int i = 0; i < count; i++){
+                    if (buffer.remaining() < 256){
+                        sink += buffer.position();
+                        buffer.clear();
+                    }
+                    String ticker = tickers[i & 7];
+                    if (layout == 0)
+                        buffer.put(RecordableTransaction.makeRecord(ticker, quantities[i], prices[i], date).getBytes(StandardCharsets.UTF_8));
+                    else if (layout == 1)
+                        TransactionRecordEncoder.encodeText(buffer, ticker, quantities[i], prices[i], date);
+                    else
+                        TransactionRecordEncoder.encodeBinary(buffer, ticker, quantities[i], prices[i], date);
+                }
+                long nanos = System.nanoTime() - start;
+                long allocated = threads.getCurrentThreadAllocatedBytes() - bytes;
+                String name = layout == 0 ? "MessageFormat  " : layout == 1 ? "text encoder   " : "binary encoder ";
+                System.out.println(name + ": " + count * 1_000_000_000L / nanos + " records/s, "
+                        + allocated / count + " bytes allocated/record");
+            }
+            System.out.println("(" + sink + " bytes written)");
+        }
+    }
+}
+
+
+// appends/s and p99 append latency of trades from 4 threads, with a force on every append (group commit) and every 1 ms / 10 ms,
+// in a temporary directory (make sure it is on a local disk, a tmpfs makes force() free)
+class TransactionJournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Duration[] intervals = {Duration.ZERO, Duration.ofMillis(1), Duration.ofMillis(10)};
+        for (int round = 0; round < 2; round++){
+            for (Duration interval : intervals){
+                Path directory = Files.createTempDirectory("journal-benchmark");
+                try (TransactionJournal journal = TransactionJournal.open(directory, 64 << 20, interval)){
+                    run(journal, interval.isZero() ? "force every append" : "force every " + interval.toMillis() + " ms");
+                }
+            }
+        }
+    }
+
+    static void run(TransactionJournal journal, String name) throws InterruptedException {
+        int threads = 4;
+        long runNanos = 1_000_000_000L;
+        long[][] latencies = new long[threads][1 << 22];
+        int[] counts = new int[threads];
+        Thread[] appenders = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++){
+            int id = t;
+            appenders[t] = new Thread(() -> {
+                long[] mine = latencies[id];
+                int n = 0;
+                long deadline = start + runNanos;
+                for (long now = System.nanoTime(); now < deadline && n < mine.length; ){
+                    journal.appendTrade(TransactionJournal.BUY, "AAPL", 1 + n % 100, 189.5f, "2024-05-17");
+                    long after = System.nanoTime();
+                    mine[n++] = after - now;
+                    now = after;
+                }
+                counts[id] = n;
+            });
+            appenders[t].start();
+        }
+        for (Thread appender : appenders)
+            appender.join();
+        long elapsed = System.nanoTime() - start;
+
+        int total = 0;
+        for (int count : counts)
+            total += count;
+        long[] all = new long[total];
+        for (int t = 0, at = 0; t < threads; at += counts[t], t++)
+            System.arraycopy(latencies[t], 0, all, at, counts[t]);
+        Arrays.sort(all);
+        System.out.printf("%-20s: %,10d appends/s, p99 %,9d ns, %,7d forces%n",
+                name, total * 1_000_000_000L / elapsed, all[(int) (total * 0.99)], journal.forces());
+    }
+}
+
+
 // ============================================================================================================================================= //
 
 //** references */
@@ -85,6 +85,245 @@ class BirdAdapter implements ToyDuck
     }
 }
 
+//** Batching Adapter */
+
+interface BulkBird extends Bird
+{
+    // an adaptee that can make many sounds in one call, paying its per call cost
+    // (a remote call, a lock, a system call...) once per batch instead of once per sound
+    public void makeSounds(int count);
+}
+
+class BulkSparrow extends Sparrow implements BulkBird
+{
+    public void makeSounds(int count)
+    {
+        System.out.println("Chirp Chirp x " + count);
+    }
+}
+
+class BatchingBirdAdapter implements ToyDuck, AutoCloseable
+{
+    // buffers squeak() calls and passes them on to the bird as one makeSounds(count) call when
+    //    - maxBatch calls are pending (count trigger, the caller that fills the batch flushes it)
+    //    - every maxDelay (time trigger, a background thread flushes whatever is pending, so a squeak waits about maxDelay at most)
+    //    - flush() or close() is called (explicit trigger)
+    // squeaks are delivered in the order they were made => a flush takes the pending count and delivers it while holding
+    // flushLock, so a batch taken later can't overtake one taken earlier, and many threads can flush at once safely.
+    // a failure of the background flush is kept and thrown by the next squeak(), flush() or close() on the caller's thread
+    private final BulkBird bird;
+    private final int maxBatch;
+    private final Object pendingLock = new Object();
+    private final ReentrantLock flushLock = new ReentrantLock();
+    private final ScheduledExecutorService timer;
+    private final AtomicReference<RuntimeException> timerFailure = new AtomicReference<>();
+    private int pending;      // guarded by pendingLock
+    private boolean closed;   // guarded by pendingLock
+
+    public BatchingBirdAdapter(BulkBird bird, int maxBatch, Duration maxDelay)
+    {
+        if (maxBatch < 1)
+            throw new IllegalArgumentException("maxBatch must be positive");
+        this.bird = bird;
+        this.maxBatch = maxBatch;
+        this.timer = Executors.newSingleThreadScheduledExecutor(task ->
+        {
+            Thread thread = new Thread(task, "batching-bird-adapter");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long delay = maxDelay.toNanos();
+        timer.scheduleWithFixedDelay(this::timedFlush, delay, delay, TimeUnit.NANOSECONDS);
+    }
+
+    public void squeak()
+    {
+        rethrowTimerFailure();
+        boolean full;
+        synchronized (pendingLock)
+        {
+            if (closed)
+                throw new IllegalStateException("adapter is closed");
+            full = ++pending >= maxBatch;
+        }
+        if (full)
+            flush();
+    }
+
+    public void flush()
+    {
+        deliverPending();
+        rethrowTimerFailure();
+    }
+
+    // a task of scheduleWithFixedDelay that throws is never run again, and nobody would see why
+    private void timedFlush()
+    {
+        try
+        {
+            deliverPending();
+        }
+        catch (RuntimeException e)
+        {
+            timerFailure.compareAndSet(null, e);
+        }
+    }
+
+    private void rethrowTimerFailure()
+    {
+        RuntimeException failure = timerFailure.getAndSet(null);
+        if (failure != null)
+            throw new IllegalStateException("background flush failed, its squeaks were lost", failure);
+    }
+
+    private void deliverPending()
+    {
+        flushLock.lock();
+        try
+        {
+            int count;
+            synchronized (pendingLock)
+            {
+                count = pending;
+                pending = 0;
+            }
+            if (count > 0)
+                bird.makeSounds(count);
+        }
+        finally
+        {
+            flushLock.unlock();
+        }
+    }
+
+    public void close()
+    {
+        synchronized (pendingLock)
+        {
+            closed = true;
+        }
+        timer.shutdownNow();
+        flush();
+    }
+}
+
+//** Generated Adapters */
+
+// a generated adapter type, creates adapters of the target interface T for adaptees of type A
+interface AdapterFactory<T, A>
+{
+    public T adapt(A adaptee);
+}
+
+class AdapterGenerator
+{
+    // generates the adapter class at runtime instead of writing one like BirdAdapter for every pairing.
+    // the target must be a functional interface (one abstract method), it is mapped onto the adaptee method with
+    // the given name and the same parameter types, for example (ToyDuck.squeak => Bird.makeSound).
+    // LambdaMetafactory spins a hidden class per mapping, the adapter call is a plain interface call on a final field
+    // just like the hand written one, so the JIT inlines it the same way.
+    // the lookup must come from a class that can access both types (pass MethodHandles.lookup() at the call site)
+    public static <T, A> AdapterFactory<T, A> generate(MethodHandles.Lookup lookup, Class<T> target,
+                                                       Class<A> adapteeType, String adapteeMethod)
+    {
+        Method targetMethod = singleAbstractMethod(target);
+        MethodType methodType = MethodType.methodType(targetMethod.getReturnType(), targetMethod.getParameterTypes());
+        try
+        {
+            MethodHandle implementation = lookup.findVirtual(adapteeType, adapteeMethod, methodType);
+            CallSite site = LambdaMetafactory.metafactory(lookup, targetMethod.getName(),
+                    MethodType.methodType(target, adapteeType), methodType, implementation, methodType);
+            MethodHandle constructor = site.getTarget();
+            return adaptee ->
+            {
+                try
+                {
+                    return target.cast(constructor.invoke(adaptee));
+                }
+                catch (Throwable e)
+                {
+                    throw new IllegalStateException("can't create adapter for " + adaptee, e);
+                }
+            };
+        }
+        catch (ReflectiveOperationException | LambdaConversionException e)
+        {
+            throw new IllegalArgumentException("can't map " + target.getName() + "." + targetMethod.getName()
+                    + " onto " + adapteeType.getName() + "." + adapteeMethod, e);
+        }
+    }
+
+    static Method singleAbstractMethod(Class<?> target)
+    {
+        Method found = null;
+        for (Method method : target.getMethods())
+        {
+            if (!Modifier.isAbstract(method.getModifiers()))
+                continue;
+            if (found != null || !target.isInterface())
+                throw new IllegalArgumentException(target.getName() + " is not a functional interface");
+            found = method;
+        }
+        if (found == null)
+            throw new IllegalArgumentException(target.getName() + " has no abstract method");
+        return found;
+    }
+}
+
+class ReflectiveAdapter implements InvocationHandler
+{
+    // the same mapping done with a dynamic proxy, every call goes through the handler and Method.invoke
+    // (boxing the arguments into an array), kept as the baseline the generated adapters should beat
+    private final Object adaptee;
+    private final Method targetMethod;
+    private final Method adapteeMethod;
+
+    private ReflectiveAdapter(Object adaptee, Method targetMethod, Method adapteeMethod)
+    {
+        this.adaptee = adaptee;
+        this.targetMethod = targetMethod;
+        this.adapteeMethod = adapteeMethod;
+    }
+
+    public static <T, A> T adapt(Class<T> target, Class<A> adapteeType, String adapteeMethod, A adaptee)
+    {
+        Method targetMethod = AdapterGenerator.singleAbstractMethod(target);
+        try
+        {
+            Method method = adapteeType.getMethod(adapteeMethod, targetMethod.getParameterTypes());
+            return target.cast(java.lang.reflect.Proxy.newProxyInstance(target.getClassLoader(), new Class<?>[] {target},
+                    new ReflectiveAdapter(adaptee, targetMethod, method)));
+        }
+        catch (NoSuchMethodException e)
+        {
+            throw new IllegalArgumentException("can't map " + target.getName() + " onto " + adapteeType.getName()
+                    + "." + adapteeMethod, e);
+        }
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable
+    {
+        if (method.equals(targetMethod))
+        {
+            try
+            {
+                return adapteeMethod.invoke(adaptee, args);
+            }
+            catch (InvocationTargetException e)
+            {
+                throw e.getCause();
+            }
+        }
+        switch (method.getName())
+        {
+            case "equals": return proxy == args[0];
+            case "hashCode": return System.identityHashCode(proxy);
+            case "toString": return "ReflectiveAdapter[" + adaptee + "]";
+            default: throw new UnsupportedOperationException(method.toString());
+        }
+    }
+}
+
 //** Usage */
 
 class Main
@@ -108,6 +347,241 @@ class Main
         // toy duck behaving like a bird 
         System.out.println("BirdAdapter...");
         birdAdapter.squeak();
+
+        // the same adapter, generated from the mapping (ToyDuck.squeak => Bird.makeSound)
+        AdapterFactory<ToyDuck, Bird> birdToDuck =
+                AdapterGenerator.generate(MethodHandles.lookup(), ToyDuck.class, Bird.class, "makeSound");
+        System.out.println("Generated adapter...");
+        birdToDuck.adapt(sparrow).squeak();
+
+        // and a pairing nobody wrote a class for (ToyDuck.squeak => Bird.fly)
+        System.out.println("Generated flying adapter...");
+        AdapterGenerator.generate(MethodHandles.lookup(), ToyDuck.class, Bird.class, "fly").adapt(sparrow).squeak();
+
+        System.out.println("Reflective adapter...");
+        ReflectiveAdapter.adapt(ToyDuck.class, Bird.class, "makeSound", sparrow).squeak();
+
+        // many squeaks, passed on to the bird as one call
+        System.out.println("BatchingBirdAdapter...");
+        try (BatchingBirdAdapter batching = new BatchingBirdAdapter(new BulkSparrow(), 100, Duration.ofMillis(10)))
+        {
+            for (int i = 0; i < 5; i++)
+                batching.squeak();
+        }
+    }
+}
+
+//** Benchmark */
+
+// squeak() through hand written, generated and reflective adapters, with one bird class behind one adapter class,
+// with four bird classes behind it, and with four adapter classes mixed at the same call site
+class AdapterBenchmark
+{
+    static class QuietBird implements Bird
+    {
+        long sounds, flights;
+        public void fly() { flights++; }
+        public void makeSound() { sounds++; }
+    }
+    static class Crow extends QuietBird { public void makeSound() { sounds += 2; } }
+    static class Owl extends QuietBird { public void makeSound() { sounds += 3; } }
+    static class Parrot extends QuietBird { public void makeSound() { sounds += 4; } }
+
+    // two more adaptees, so there are more pairings (and adapter classes) than Bird alone offers
+    interface Whistle { public void blow(); }
+    interface Horn { public void honk(); }
+    static class CountingWhistle implements Whistle { long blows; public void blow() { blows++; } }
+    static class CountingHorn implements Horn { long honks; public void honk() { honks++; } }
+
+    // the hand written adapters for those pairings, next to BirdAdapter
+    static class FlightAdapter implements ToyDuck
+    {
+        final Bird bird;
+        FlightAdapter(Bird bird) { this.bird = bird; }
+        public void squeak() { bird.fly(); }
+    }
+    static class WhistleAdapter implements ToyDuck
+    {
+        final Whistle whistle;
+        WhistleAdapter(Whistle whistle) { this.whistle = whistle; }
+        public void squeak() { whistle.blow(); }
+    }
+    static class HornAdapter implements ToyDuck
+    {
+        final Horn horn;
+        HornAdapter(Horn horn) { this.horn = horn; }
+        public void squeak() { horn.honk(); }
+    }
+
+    static final int DUCKS = 1024;
+
+    public static void main(String args[])
+    {
+        MethodHandles.Lookup lookup = MethodHandles.lookup();
+        AdapterFactory<ToyDuck, Bird> generated = AdapterGenerator.generate(lookup, ToyDuck.class, Bird.class, "makeSound");
+
+        // 1 and 4 bird classes behind a single adapter class => the adaptee call site inside the adapter
+        // is monomorphic, then megamorphic
+        for (int kinds : new int[] {1, 4})
+        {
+            QuietBird[] birds = new QuietBird[DUCKS];
+            for (int i = 0; i < DUCKS; i++)
+                birds[i] = newBird(i % kinds);
+
+            ToyDuck[] handWritten = new ToyDuck[DUCKS], generatedDucks = new ToyDuck[DUCKS], reflective = new ToyDuck[DUCKS];
+            for (int i = 0; i < DUCKS; i++)
+            {
+                handWritten[i] = new BirdAdapter(birds[i]);
+                generatedDucks[i] = generated.adapt(birds[i]);
+                reflective[i] = ReflectiveAdapter.adapt(ToyDuck.class, Bird.class, "makeSound", birds[i]);
+            }
+            run(kinds == 1 ? "monomorphic (1 bird class, 1 adapter class)"
+                           : "megamorphic adaptee (" + kinds + " bird classes, 1 adapter class)",
+                handWritten, generatedDucks, reflective);
+        }
+
+        // 4 pairings mixed in one array => the duck.squeak() call site sees 4 adapter classes
+        // (4 hand written classes, 4 generated classes; the dynamic proxies all share one proxy class)
+        AdapterFactory<ToyDuck, Bird> generatedFlight = AdapterGenerator.generate(lookup, ToyDuck.class, Bird.class, "fly");
+        AdapterFactory<ToyDuck, Whistle> generatedWhistle = AdapterGenerator.generate(lookup, ToyDuck.class, Whistle.class, "blow");
+        AdapterFactory<ToyDuck, Horn> generatedHorn = AdapterGenerator.generate(lookup, ToyDuck.class, Horn.class, "honk");
+        ToyDuck[] handWritten = new ToyDuck[DUCKS], generatedDucks = new ToyDuck[DUCKS], reflective = new ToyDuck[DUCKS];
+        for (int i = 0; i < DUCKS; i++)
+        {
+            QuietBird bird = new QuietBird();
+            Whistle whistle = new CountingWhistle();
+            Horn horn = new CountingHorn();
+            switch (i % 4)
+            {
+                case 0:
+                    handWritten[i] = new BirdAdapter(bird);
+                    generatedDucks[i] = generated.adapt(bird);
+                    reflective[i] = ReflectiveAdapter.adapt(ToyDuck.class, Bird.class, "makeSound", bird);
+                    break;
+                case 1:
+                    handWritten[i] = new FlightAdapter(bird);
+                    generatedDucks[i] = generatedFlight.adapt(bird);
+                    reflective[i] = ReflectiveAdapter.adapt(ToyDuck.class, Bird.class, "fly", bird);
+                    break;
+                case 2:
+                    handWritten[i] = new WhistleAdapter(whistle);
+                    generatedDucks[i] = generatedWhistle.adapt(whistle);
+                    reflective[i] = ReflectiveAdapter.adapt(ToyDuck.class, Whistle.class, "blow", whistle);
+                    break;
+                default:
+                    handWritten[i] = new HornAdapter(horn);
+                    generatedDucks[i] = generatedHorn.adapt(horn);
+                    reflective[i] = ReflectiveAdapter.adapt(ToyDuck.class, Horn.class, "honk", horn);
+            }
+        }
+        run("megamorphic adapters (4 adapter classes at one call site)", handWritten, generatedDucks, reflective);
+    }
+
+    static void run(String scenario, ToyDuck[] handWritten, ToyDuck[] generated, ToyDuck[] reflective)
+    {
+        System.out.println(scenario);
+        for (int round = 0; round < 3; round++)
+        {
+            measure("hand written", handWritten);
+            measure("generated   ", generated);
+            measure("reflective  ", reflective);
+        }
+    }
+
+    static QuietBird newBird(int kind)
+    {
+        switch (kind)
+        {
+            case 1: return new Crow();
+            case 2: return new Owl();
+            case 3: return new Parrot();
+            default: return new QuietBird();
+        }
+    }
+
+    static void measure(String name, ToyDuck[] ducks)
+    {
+        int passes = 20_000;
+        long start = System.nanoTime();
+        for (int pass = 0; pass < passes; pass++)
+            for (ToyDuck duck : ducks)
+                duck.squeak();
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("  %s : %.2f ns/call%n", name, (double) elapsed / ((long) passes * ducks.length));
+    }
+}
+
+
+// squeak() calls per second through BirdAdapter (one adaptee call per squeak) and BatchingBirdAdapter
+// (one adaptee call per batch of 64), as the fixed cost of every adaptee call grows, with two threads squeaking
+class BatchingAdapterBenchmark
+{
+    static class CostlyBird implements BulkBird
+    {
+        final long callCostNanos;
+        final LongAdder sounds = new LongAdder();
+
+        CostlyBird(long callCostNanos)
+        {
+            this.callCostNanos = callCostNanos;
+        }
+
+        public void fly() {}
+
+        public void makeSound()
+        {
+            makeSounds(1);
+        }
+
+        public void makeSounds(int count)
+        {
+            long end = System.nanoTime() + callCostNanos;
+            while (System.nanoTime() < end)
+                Thread.onSpinWait();
+            sounds.add(count);
+        }
+    }
+
+    public static void main(String args[]) throws Exception
+    {
+        for (long cost : new long[] {0, 100, 1_000, 10_000})
+        {
+            CostlyBird direct = new CostlyBird(cost);
+            double perCall = measure(new BirdAdapter(direct), direct);
+
+            CostlyBird bulk = new CostlyBird(cost);
+            double batched;
+            try (BatchingBirdAdapter adapter = new BatchingBirdAdapter(bulk, 64, Duration.ofMillis(1)))
+            {
+                batched = measure(adapter, bulk);
+            }
+            System.out.printf("adaptee call cost %6d ns : per call %,12.0f squeaks/s, batched %,12.0f squeaks/s%n",
+                    cost, perCall, batched);
+        }
+    }
+
+    static double measure(ToyDuck duck, CostlyBird bird) throws Exception
+    {
+        int threads = 2, squeaks = 200_000;
+        Thread[] workers = new Thread[threads];
+        long start = System.nanoTime();
+        for (int t = 0; t < threads; t++)
+        {
+            workers[t] = new Thread(() ->
+            {
+                for (int i = 0; i < squeaks; i++)
+                    duck.squeak();
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers)
+            worker.join();
+        if (duck instanceof BatchingBirdAdapter)
+            ((BatchingBirdAdapter) duck).flush();
+        long elapsed = System.nanoTime() - start;
+        if (bird.sounds.sum() != (long) threads * squeaks)
+            throw new IllegalStateException(bird.sounds.sum() + " sounds instead of " + (long) threads * squeaks);
+        return (double) threads * squeaks * 1_000_000_000L / elapsed;
     }
 }
 
@@ -31,19 +31,119 @@ Benefits of using Bridge
 
 public interface DrawAPI {
     public void drawCircle(int radius, int x, int y);
+
+    // draws count circles in one call, circle i is (radius[i], x[i], y[i])
+    // implementations that can do better than one call per circle override it
+    public default void drawCircles(int[] radius, int[] x, int[] y, int count) {
+        for (int i = 0; i < count; i++)
+            drawCircle(radius[i], x[i], y[i]);
+    }
+
+    // same, packed as radius, x, y triples between the buffer's position and limit
+    public default void drawCircles(IntBuffer circles) {
+        for (int i = circles.position(); i + 2 < circles.limit(); i += 3)
+            drawCircle(circles.get(i), circles.get(i + 1), circles.get(i + 2));
+    }
  }
 
-public class RedCircle implements DrawAPI {
+// builds the lines of a whole batch in one reusable buffer and prints them with a single call
+abstract class TextCircleRenderer implements DrawAPI {
+    // batches are formatted into this fixed chunk and written out whenever it fills,
+    // so a batch of any size costs no allocation and no memory beyond the chunk
+    private static final int CHUNK_SIZE = 8 * 1024;
+    private static final byte[] X = ", x: ".getBytes();
+    private static final byte[] SEPARATOR = ", ".getBytes();
+    private static final byte[] LINE_END = ("]" + System.lineSeparator()).getBytes();
+
+    private final String color;
+    private final byte[] linePrefix;
+    private final byte[] chunk = new byte[CHUNK_SIZE];
+    private int used;
+
+    protected TextCircleRenderer(String color) {
+        this.color = color;
+        this.linePrefix = ("Drawing Circle[ color: " + color + ", radius: ").getBytes();
+    }
+
     @Override
     public void drawCircle(int radius, int x, int y) {
-        System.out.println("Drawing Circle[ color: red, radius: " + radius + ", x: " + x + ", " + y + "]");
+        System.out.println("Drawing Circle[ color: " + color + ", radius: " + radius + ", x: " + x + ", " + y + "]");
     }
-}
 
-public class GreenCircle implements DrawAPI {
     @Override
-    public void drawCircle(int radius, int x, int y) {
-        System.out.println("Drawing Circle[ color: green, radius: " + radius + ", x: " + x + ", " + y + "]");
+    public synchronized void drawCircles(int[] radius, int[] x, int[] y, int count) {
+        for (int i = 0; i < count; i++)
+            appendLine(radius[i], x[i], y[i]);
+        flushChunk();
+    }
+
+    @Override
+    public synchronized void drawCircles(IntBuffer circles) {
+        for (int i = circles.position(); i + 2 < circles.limit(); i += 3)
+            appendLine(circles.get(i), circles.get(i + 1), circles.get(i + 2));
+        flushChunk();
+    }
+
+    private void appendLine(int radius, int x, int y) {
+        if (used + linePrefix.length + X.length + SEPARATOR.length + LINE_END.length + 3 * 11 > chunk.length)
+            flushChunk();
+        append(linePrefix);
+        append(radius);
+        append(X);
+        append(x);
+        append(SEPARATOR);
+        append(y);
+        append(LINE_END);
+    }
+
+    private void append(byte[] bytes) {
+        System.arraycopy(bytes, 0, chunk, used, bytes.length);
+        used += bytes.length;
+    }
+
+    private void append(int value) {
+        long digits = value;
+        if (digits < 0) {
+            chunk[used++] = '-';
+            digits = -digits;
+        }
+        long divisor = 1;
+        while (divisor <= digits / 10)
+            divisor *= 10;
+        for (; divisor > 0; divisor /= 10)
+            chunk[used++] = (byte) ('0' + digits / divisor % 10);
+    }
+
+    private void flushChunk() {
+        System.out.write(chunk, 0, used);
+        used = 0;
+    }
+}
+
+public class RedCircle extends TextCircleRenderer {
+    public RedCircle() {
+        super("red");
+    }
+}
+
+public class GreenCircle extends TextCircleRenderer {
+    public GreenCircle() {
+        super("green");
+    }
+}
+
+// RedCircle and GreenCircle hold no per-circle state, so every circle of a color shares one instance (Flyweight, see Structural/Flyweight)
+public class DrawAPIs {
+    private static final FlyweightFactory<String, DrawAPI> COLORS = new FlyweightFactory<>(color -> {
+        if ("red".equals(color))
+            return new RedCircle();
+        if ("green".equals(color))
+            return new GreenCircle();
+        throw new IllegalArgumentException("unknown color: " + color);
+    }, 16, false);
+
+    public static DrawAPI of(String color) {
+        return COLORS.get(color);
     }
 }
 
@@ -69,17 +169,454 @@ public class Circle extends Shape {
     public void draw() {
        drawAPI.drawCircle(radius,x,y);
     }
+
+    void addTo(ShapeBatch batch) {
+       batch.add(drawAPI, radius, x, y);
+    }
+
+    public int getX() { return x; }
+    public int getY() { return y; }
+    public int getRadius() { return radius; }
+
+    // a circle that is part of a Scene must be moved through Scene.move(), so the index stays correct
+    void moveTo(int x, int y) {
+       this.x = x;
+       this.y = y;
+    }
+}
+
+//** Scene with Spatial Index */
+
+// holds the shapes of a large scene in a uniform grid, indexed by the cell of each circle's center.
+// a viewport query only visits the cells around the viewport, so drawing a view costs what is visible, not the whole scene
+public class Scene {
+    private final int cellSize;
+    private final Map<Long, List<Circle>> cells = new HashMap<>();
+    private int maxRadius;  // a circle centered outside the viewport may still reach into it by up to maxRadius
+    // how many circles have each radius, so maxRadius shrinks again when the largest circles leave the scene
+    private final TreeMap<Integer, Integer> radiusCounts = new TreeMap<>();
+    private int size;
+
+    public Scene(int cellSize) {
+       if (cellSize < 1)
+          throw new IllegalArgumentException("cellSize must be positive");
+       this.cellSize = cellSize;
+    }
+
+    public int size() {
+       return size;
+    }
+
+    public void add(Circle circle) {
+       cells.computeIfAbsent(cellOf(circle.getX(), circle.getY()), cell -> new ArrayList<>()).add(circle);
+       radiusCounts.merge(circle.getRadius(), 1, Integer::sum);
+       maxRadius = radiusCounts.lastKey();
+       size++;
+    }
+
+    public boolean remove(Circle circle) {
+       long cell = cellOf(circle.getX(), circle.getY());
+       List<Circle> circles = cells.get(cell);
+       int i = indexOf(circles, circle);
+       if (i < 0)
+          return false;
+       // order inside a cell doesn't matter, swap with the last one instead of shifting
+       circles.set(i, circles.get(circles.size() - 1));
+       circles.remove(circles.size() - 1);
+       if (circles.isEmpty())
+          cells.remove(cell);
+       radiusCounts.merge(circle.getRadius(), -1, (count, minusOne) -> count == 1 ? null : count + minusOne);
+       maxRadius = radiusCounts.isEmpty() ? 0 : radiusCounts.lastKey();
+       size--;
+       return true;
+    }
+
+    public void move(Circle circle, int x, int y) {
+       if (cellOf(circle.getX(), circle.getY()) == cellOf(x, y)) {
+          // same cell => the index doesn't change, but a circle of another scene must not be moved either
+          if (indexOf(cells.get(cellOf(x, y)), circle) < 0)
+             throw new IllegalArgumentException("circle is not part of this scene");
+          circle.moveTo(x, y);
+          return;
+       }
+       if (!remove(circle))
+          throw new IllegalArgumentException("circle is not part of this scene");
+       circle.moveTo(x, y);
+       add(circle);
+    }
+
+    // by identity, two equal circles are still two shapes of the scene
+    private static int indexOf(List<Circle> circles, Circle circle) {
+       if (circles != null) {
+          for (int i = 0; i < circles.size(); i++) {
+             if (circles.get(i) == circle)
+                return i;
+          }
+       }
+       return -1;
+    }
+
+    // every circle that overlaps the viewport [minX..maxX] x [minY..maxY]
+    public void forEachVisible(int minX, int minY, int maxX, int maxY, Consumer<Circle> action) {
+       int fromColumn = Math.floorDiv(minX - maxRadius, cellSize), toColumn = Math.floorDiv(maxX + maxRadius, cellSize);
+       int fromRow = Math.floorDiv(minY - maxRadius, cellSize), toRow = Math.floorDiv(maxY + maxRadius, cellSize);
+
+       if ((long) (toColumn - fromColumn + 1) * (toRow - fromRow + 1) > cells.size()) {
+          // the viewport covers more cells than are in use, walking the used cells is cheaper
+          for (List<Circle> circles : cells.values())
+             visit(circles, minX, minY, maxX, maxY, action);
+          return;
+       }
+       for (int row = fromRow; row <= toRow; row++) {
+          for (int column = fromColumn; column <= toColumn; column++) {
+             List<Circle> circles = cells.get(key(column, row));
+             if (circles != null)
+                visit(circles, minX, minY, maxX, maxY, action);
+          }
+       }
+    }
+
+    // draws only the visible shapes, each through its own DrawAPI
+    public void draw(int minX, int minY, int maxX, int maxY) {
+       forEachVisible(minX, minY, maxX, maxY, Circle::draw);
+    }
+
+    private static void visit(List<Circle> circles, int minX, int minY, int maxX, int maxY, Consumer<Circle> action) {
+       for (int i = 0; i < circles.size(); i++) {
+          Circle circle = circles.get(i);
+          int x = circle.getX(), y = circle.getY(), radius = circle.getRadius();
+          if (x + radius >= minX && x - radius <= maxX && y + radius >= minY && y - radius <= maxY)
+             action.accept(circle);
+       }
+    }
+
+    private long cellOf(int x, int y) {
+       return key(Math.floorDiv(x, cellSize), Math.floorDiv(y, cellSize));
+    }
+
+    private static long key(int column, int row) {
+       return ((long) column << 32) | (row & 0xFFFFFFFFL);
+    }
+}
+
+//** Batching */
+
+// collects circles grouped by their DrawAPI and draws each group with a single drawCircles call.
+// the arrays are kept between frames, so a batch that is reused (clear() then add) doesn't allocate
+public class ShapeBatch {
+    private final Map<DrawAPI, CircleArrays> groups = new IdentityHashMap<>();
+
+    public void add(Circle circle) {
+       circle.addTo(this);
+    }
+
+    void add(DrawAPI drawAPI, int radius, int x, int y) {
+       CircleArrays group = groups.get(drawAPI);
+       if (group == null) {
+          group = new CircleArrays();
+          groups.put(drawAPI, group);
+       }
+       group.add(radius, x, y);
+    }
+
+    public void draw() {
+       for (Map.Entry<DrawAPI, CircleArrays> group : groups.entrySet()) {
+          CircleArrays circles = group.getValue();
+          if (circles.count > 0)
+             group.getKey().drawCircles(circles.radius, circles.x, circles.y, circles.count);
+       }
+    }
+
+    public void clear() {
+       for (CircleArrays circles : groups.values())
+          circles.count = 0;
+    }
+
+    private static final class CircleArrays {
+       int[] radius = new int[64], x = new int[64], y = new int[64];
+       int count;
+
+       void add(int r, int cx, int cy) {
+          if (count == radius.length) {
+             radius = Arrays.copyOf(radius, count * 2);
+             x = Arrays.copyOf(x, count * 2);
+             y = Arrays.copyOf(y, count * 2);
+          }
+          radius[count] = r;
+          x[count] = cx;
+          y[count] = cy;
+          count++;
+       }
+    }
+}
+
+//** Raster Implementation */
+
+// a DrawAPI that really draws => the circle is filled into a Framebuffer with the given RGB color
+public class RasterCircle implements DrawAPI {
+    private final Framebuffer framebuffer;
+    private final int rgb;
+
+    public RasterCircle(Framebuffer framebuffer, int rgb) {
+        this.framebuffer = framebuffer;
+        this.rgb = rgb;
+    }
+
+    @Override
+    public void drawCircle(int radius, int x, int y) {
+        framebuffer.queue(radius, x, y, rgb);
+    }
+
+    @Override
+    public void drawCircles(int[] radius, int[] x, int[] y, int count) {
+        framebuffer.queue(radius, x, y, count, rgb);
+    }
+}
+
+// an RGB frame (3 bytes per pixel) kept off-heap in a direct ByteBuffer.
+// drawing only queues the circles, render() splits the frame into tiles and rasterizes the tiles in parallel,
+// every tile draws the circles that touch it in the order they were queued, so the result doesn't depend on the thread count
+public class Framebuffer {
+    private static final int TILE_SIZE = 128;
+
+    private final int width, height;
+    private final ByteBuffer pixels;
+    private int[] circles = new int[4 * 1024];  // radius, x, y, rgb per queued circle
+    private int queued;
+
+    public Framebuffer(int width, int height) {
+        this.width = width;
+        this.height = height;
+        this.pixels = ByteBuffer.allocateDirect(Math.multiplyExact(width * height, 3));
+    }
+
+    public int getWidth() { return width; }
+    public int getHeight() { return height; }
+
+    synchronized void queue(int radius, int x, int y, int rgb) {
+        ensureCapacity(queued + 4);
+        circles[queued++] = radius;
+        circles[queued++] = x;
+        circles[queued++] = y;
+        circles[queued++] = rgb;
+    }
+
+    synchronized void queue(int[] radius, int[] x, int[] y, int count, int rgb) {
+        ensureCapacity(queued + 4 * count);
+        for (int i = 0; i < count; i++) {
+            circles[queued++] = radius[i];
+            circles[queued++] = x[i];
+            circles[queued++] = y[i];
+            circles[queued++] = rgb;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity > circles.length)
+            circles = Arrays.copyOf(circles, Math.max(capacity, circles.length * 2));
+    }
+
+    // rasterizes every queued circle, one task per tile, then empties the queue
+    public void render(ExecutorService executor) throws InterruptedException {
+        int[] snapshot;
+        int count;
+        synchronized (this) {
+            snapshot = circles;
+            count = queued;
+            queued = 0;
+            circles = new int[circles.length];
+        }
+        List<Callable<Void>> tiles = new ArrayList<>();
+        for (int tileY = 0; tileY < height; tileY += TILE_SIZE) {
+            for (int tileX = 0; tileX < width; tileX += TILE_SIZE) {
+                int x0 = tileX, y0 = tileY;
+                int x1 = Math.min(tileX + TILE_SIZE, width) - 1, y1 = Math.min(tileY + TILE_SIZE, height) - 1;
+                tiles.add(() -> {
+                    renderTile(snapshot, count, x0, y0, x1, y1);
+                    return null;
+                });
+            }
+        }
+        for (Future<Void> tile : executor.invokeAll(tiles)) {
+            try {
+                tile.get();
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("tile rendering failed", e.getCause());
+            }
+        }
+    }
+
+    // fills the part of every circle that falls inside the tile [x0..x1] x [y0..y1], one horizontal span per row
+    private void renderTile(int[] queue, int count, int x0, int y0, int x1, int y1) {
+        for (int i = 0; i < count; i += 4) {
+            int radius = queue[i], cx = queue[i + 1], cy = queue[i + 2], rgb = queue[i + 3];
+            if (cx + radius < x0 || cx - radius > x1 || cy + radius < y0 || cy - radius > y1)
+                continue;
+            byte r = (byte) (rgb >>> 16), g = (byte) (rgb >>> 8), b = (byte) rgb;
+            for (int y = Math.max(y0, cy - radius); y <= Math.min(y1, cy + radius); y++) {
+                int dy = y - cy;
+                int dx = (int) Math.sqrt((double) radius * radius - (double) dy * dy);
+                int from = Math.max(x0, cx - dx), to = Math.min(x1, cx + dx);
+                for (int x = from, index = (y * width + from) * 3; x <= to; x++, index += 3) {
+                    pixels.put(index, r);
+                    pixels.put(index + 1, g);
+                    pixels.put(index + 2, b);
+                }
+            }
+        }
+    }
+
+    public void clear() {
+        byte[] zeros = new byte[Math.min(pixels.capacity(), 64 * 1024)];
+        ByteBuffer frame = pixels.duplicate().clear();
+        while (frame.hasRemaining())
+            frame.put(zeros, 0, Math.min(zeros.length, frame.remaining()));
+    }
+
+    // writes the frame as a binary PPM image through a memory-mapped file, the pixels are copied straight from off-heap memory
+    public void writePpm(Path file) throws IOException {
+        byte[] header = ("P6\n" + width + " " + height + "\n255\n").getBytes(StandardCharsets.US_ASCII);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, header.length + (long) pixels.capacity());
+            mapped.put(header);
+            mapped.put(pixels.duplicate().clear());
+            mapped.force();
+        }
+    }
 }
 
 //** Usage */
 
 public class BridgePatternDemo {
     public static void main(String[] args) {
-       Shape redCircle = new Circle(100,100, 10, new RedCircle());
-       Shape greenCircle = new Circle(100,100, 10, new GreenCircle());
+       Shape redCircle = new Circle(100,100, 10, DrawAPIs.of("red"));
+       Shape greenCircle = new Circle(100,100, 10, DrawAPIs.of("green"));
  
        redCircle.draw();
        greenCircle.draw();
+
+       // the same circles drawn as one batch per DrawAPI
+       ShapeBatch batch = new ShapeBatch();
+       batch.add((Circle) redCircle);
+       batch.add((Circle) greenCircle);
+       batch.draw();
+    }
+}
+
+//** Benchmark */
+
+// query and draw time of a 1920x1080 viewport through the Scene vs drawing every shape, as the scene grows
+public class SceneBenchmark {
+    static class CountingDrawAPI implements DrawAPI {
+       long drawn;
+
+       @Override
+       public void drawCircle(int radius, int x, int y) {
+          drawn++;
+       }
+    }
+
+    public static void main(String[] args) {
+       int maxShapes = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+       int world = 100_000;
+       CountingDrawAPI drawAPI = new CountingDrawAPI();
+
+       for (int shapes = 10_000; shapes <= maxShapes; shapes *= 10) {
+          Random random = new Random(42);
+          List<Circle> all = new ArrayList<>(shapes);
+          Scene scene = new Scene(256);
+          for (int i = 0; i < shapes; i++) {
+             Circle circle = new Circle(random.nextInt(world), random.nextInt(world), 1 + random.nextInt(50), drawAPI);
+             all.add(circle);
+             scene.add(circle);
+          }
+
+          long fullNanos = Long.MAX_VALUE, sceneNanos = Long.MAX_VALUE, drawnByScene = 0;
+          for (int round = 0; round < 5; round++) {
+             long start = System.nanoTime();
+             for (Circle circle : all)
+                circle.draw();
+             fullNanos = Math.min(fullNanos, System.nanoTime() - start);
+
+             int x = random.nextInt(world - 1920), y = random.nextInt(world - 1080);
+             long before = drawAPI.drawn;
+             start = System.nanoTime();
+             scene.draw(x, y, x + 1919, y + 1079);
+             sceneNanos = Math.min(sceneNanos, System.nanoTime() - start);
+             drawnByScene = drawAPI.drawn - before;
+          }
+          System.out.println(shapes + " shapes : full list " + fullNanos / 1000 + " us"
+                + ", scene " + sceneNanos / 1000 + " us (" + drawnByScene + " visible)");
+       }
+    }
+}
+
+
+// frame time for 100k circles rasterized at 1, 4 and all threads
+public class RasterBenchmark {
+    public static void main(String[] args) throws Exception {
+       Framebuffer framebuffer = new Framebuffer(1920, 1080);
+       Random random = new Random(42);
+       DrawAPI[] colors = {new RasterCircle(framebuffer, 0xFF0000), new RasterCircle(framebuffer, 0x00FF00), new RasterCircle(framebuffer, 0x0000FF)};
+       Circle[] circles = new Circle[100_000];
+       for (int i = 0; i < circles.length; i++)
+          circles[i] = new Circle(random.nextInt(1920), random.nextInt(1080), 1 + random.nextInt(20), colors[i % colors.length]);
+
+       int cores = Runtime.getRuntime().availableProcessors();
+       for (int threads : new int[] {1, 4, cores}) {
+          ExecutorService executor = Executors.newFixedThreadPool(threads);
+          long best = Long.MAX_VALUE;
+          for (int frame = 0; frame < 10; frame++) {
+             long start = System.nanoTime();
+             framebuffer.clear();
+             for (Circle circle : circles)
+                circle.draw();
+             framebuffer.render(executor);
+             best = Math.min(best, System.nanoTime() - start);
+          }
+          executor.shutdown();
+          System.out.println(threads + " threads : " + best / 1_000_000 + " ms per frame");
+       }
+
+       Path file = Files.createTempFile("frame", ".ppm");
+       framebuffer.writePpm(file);
+       System.out.println("last frame written to " + file);
+    }
+}
+
+
+// shapes per second for 1M circles, one draw() per shape vs one ShapeBatch per frame
+// the red/green renderers print to a sink, so the numbers show the cost of the calls and of the output, not of the terminal
+public class ShapeBatchBenchmark {
+    public static void main(String[] args) {
+       int count = 1_000_000;
+       DrawAPI[] apis = {DrawAPIs.of("red"), DrawAPIs.of("green")};
+       Circle[] circles = new Circle[count];
+       Random random = new Random(42);
+       for (int i = 0; i < count; i++)
+          circles[i] = new Circle(random.nextInt(1000), random.nextInt(1000), 1 + random.nextInt(50), apis[i % apis.length]);
+
+       PrintStream console = System.out;
+       System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+       ShapeBatch batch = new ShapeBatch();
+       for (int frame = 0; frame < 5; frame++) {
+          long start = System.nanoTime();
+          for (Circle circle : circles)
+             circle.draw();
+          long drawNanos = System.nanoTime() - start;
+
+          start = System.nanoTime();
+          batch.clear();
+          for (Circle circle : circles)
+             batch.add(circle);
+          batch.draw();
+          long batchNanos = System.nanoTime() - start;
+
+          console.println("draw()     : " + count * 1_000_000_000L / drawNanos + " shapes/s"
+                + "\tShapeBatch : " + count * 1_000_000_000L / batchNanos + " shapes/s");
+       }
+       System.setOut(console);
     }
 }
 
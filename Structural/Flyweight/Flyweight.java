@@ -0,0 +1,188 @@
+
+/*
+
+--------------------------------------------------------------------------------------
+Use sharing to support large numbers of fine-grained objects efficiently.
+--------------------------------------------------------------------------------------
+is primarily used to reduce the number of objects created and to decrease memory footprint.
+--------------------------------------------------------------------------------------
+The state of a flyweight is split in two parts
+    1- Intrinsic state => stored inside the flyweight, it is independent of the context so it can be shared (Ex. the color of a circle).
+    2- Extrinsic state => depends on the context, it is kept by the client and passed to the flyweight when it is used (Ex. the position of a circle).
+--------------------------------------------------------------------------------------
+Clients must not create flyweights directly, they get them from a factory which returns the existing instance for a key,
+and only creates (and stores) a new one when there is none yet.
+--------------------------------------------------------------------------------------
+when to use:
+    1- When an application uses a large number of objects, and storage costs are high because of the quantity of objects.
+    2- When most of the object state can be made extrinsic.
+    3- When the application doesn't depend on object identity (flyweights are shared, so identity tests return true for conceptually distinct objects).
+--------------------------------------------------------------------------------------
+Benefits of using Flyweight    
+    1- It reduces the number of objects.
+    2- It reduces the amount of memory and storage devices required if the objects are persisted.
+--------------------------------------------------------------------------------------
+Hot points
+    1- Concurrency => the factory is usually called from many threads, two threads asking for the same key must get the same instance.
+    2- Bounded pool => a pool with an unbounded number of keys is a memory leak, 
+       when it is full new keys get a fresh (unshared) instance instead of growing the pool.
+    3- Weak references => flyweights nobody uses anymore can be garbage collected, the factory re-creates them on demand.
+--------------------------------------------------------------------------------------
+ 
+*/
+
+
+//** Flyweight Factory */
+
+// returns one shared instance per key, safe to use from many threads
+public class FlyweightFactory<K, V> {
+    private final Function<? super K, ? extends V> creator;
+    private final int maxSize;
+    private final boolean weakValues;
+    // the value, or a WeakReference to it when weakValues is set
+    private final ConcurrentHashMap<K, Object> pool = new ConcurrentHashMap<>();
+    private final ReferenceQueue<V> collected = new ReferenceQueue<>();
+
+    public FlyweightFactory(Function<? super K, ? extends V> creator, int maxSize, boolean weakValues) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive");
+        this.creator = creator;
+        this.maxSize = maxSize;
+        this.weakValues = weakValues;
+    }
+
+    public V get(K key) {
+        if (weakValues)
+            purgeCollected();
+
+        V value = unwrap(pool.get(key));
+        if (value != null)
+            return value;
+
+        Object[] created = new Object[1];
+        Object stored = pool.compute(key, (k, current) -> {
+            V existing = unwrap(current);
+            if (existing != null)
+                return current;  // another thread created it first
+            if (current == null && pool.size() >= maxSize)
+                return null;     // pool is full, don't store it
+            V fresh = creator.apply(k);
+            created[0] = fresh;
+            return weakValues ? new KeyedReference<>(k, fresh, collected) : fresh;
+        });
+        if (stored == null)
+            return creator.apply(key);  // unshared instance, the pool stays bounded
+
+        value = unwrap(stored);
+        if (value == null)   // only possible when a weak value was collected right after compute()
+            value = castValue(created[0]);
+        return value != null ? value : get(key);
+    }
+
+    public int size() {
+        return pool.size();
+    }
+
+    private V unwrap(Object stored) {
+        if (stored instanceof KeyedReference)
+            return castValue(((KeyedReference<?, ?>) stored).get());
+        return castValue(stored);
+    }
+
+    @SuppressWarnings("unchecked")
+    private V castValue(Object value) {
+        return (V) value;
+    }
+
+    // removes the entries whose values have been garbage collected
+    private void purgeCollected() {
+        Reference<? extends V> reference;
+        while ((reference = collected.poll()) != null)
+            pool.remove(((KeyedReference<?, ?>) reference).key, reference);
+    }
+
+    private static final class KeyedReference<K, V> extends WeakReference<V> {
+        final K key;
+
+        KeyedReference(K key, V value, ReferenceQueue<V> queue) {
+            super(value, queue);
+            this.key = key;
+        }
+    }
+}
+
+//** Usage */
+
+// the Bridge example (Structural/Bridge) shares its RedCircle/GreenCircle DrawAPIs through DrawAPIs.of(color),
+// and the Builder example (Creational/Builder) shares its Sony/Samsung items through Companies.of(company)
+
+public class FlyweightPatternDemo {
+    public static void main(String[] args) {
+        FlyweightFactory<String, DrawAPI> colors = new FlyweightFactory<>(color -> {
+            if ("red".equals(color))
+                return new RedCircle();
+            if ("green".equals(color))
+                return new GreenCircle();
+            throw new IllegalArgumentException("unknown color: " + color);
+        }, 16, false);
+
+        // 20 circles, but only 2 DrawAPI objects
+        for (int i = 0; i < 20; i++) {
+            Shape circle = new Circle(i * 10, i * 10, 5, colors.get(i % 2 == 0 ? "red" : "green"));
+            circle.draw();
+        }
+        System.out.println("DrawAPI instances: " + colors.size());
+    }
+}
+
+//** Benchmark */
+
+// heap used by 10M circles and 10M CD items, with a new DrawAPI/Company per object and with the shared flyweights
+public class FlyweightMemoryBenchmark {
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+
+        long before = usedHeap();
+        Circle[] circles = new Circle[count];
+        for (int i = 0; i < count; i++)
+            circles[i] = new Circle(i, i, 5, i % 2 == 0 ? new RedCircle() : new GreenCircle());
+        System.out.println("circles, new DrawAPI each  : " + (usedHeap() - before) / (1024 * 1024) + " MB");
+        circles = null;
+
+        before = usedHeap();
+        circles = new Circle[count];
+        for (int i = 0; i < count; i++)
+            circles[i] = new Circle(i, i, 5, DrawAPIs.of(i % 2 == 0 ? "red" : "green"));
+        System.out.println("circles, shared DrawAPI    : " + (usedHeap() - before) / (1024 * 1024) + " MB");
+        circles = null;
+
+        before = usedHeap();
+        CDType items = new CDType(count);
+        for (int i = 0; i < count; i++)
+            items.addItem(i % 2 == 0 ? new Sony() : new Samsung());
+        System.out.println("CD items, new Company each : " + (usedHeap() - before) / (1024 * 1024) + " MB");
+        items = null;
+
+        before = usedHeap();
+        items = new CDType(count);
+        for (int i = 0; i < count; i++)
+            items.addItem(i % 2 == 0 ? Companies.of(Sony.class) : Companies.of(Samsung.class));
+        System.out.println("CD items, shared Company   : " + (usedHeap() - before) / (1024 * 1024) + " MB");
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++)
+            System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
+
+
+// ============================================================================================================================================= //
+
+//** references */
+// https://www.tutorialspoint.com/design_pattern/flyweight_pattern.htm
+// https://www.oodesign.com/flyweight-pattern.html
+// https://www.geeksforgeeks.org/flyweight-design-pattern/
+// https://www.javatpoint.com/flyweight-pattern
\ No newline at end of file